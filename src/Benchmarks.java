@@ -0,0 +1,280 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+public class Benchmarks {
+    //throughput benchmarks of the simulation hot paths, so a change to performAction can be measured before and after.
+    //each benchmark is warmed up, then timed over several fixed-length iterations. the results are printed and written
+    //as csv (one row per benchmark and parameter set) to benchmarks/, labelled with -Dbench.label so runs of
+    //different versions can be lined up against each other.
+    //run with benchmark_script.txt, or: java --add-modules jdk.incubator.vector -cp ".:java_jars/*" Benchmarks [name filter]
+    //or from the pom: mvn compile exec:exec@benchmarks [-Dbench.filter=name filter] [-Dbench.label=label]
+    //
+    //this is deliberately not jmh, and it doesn't do what jmh does for you. there's no forking: every benchmark run by
+    //one call shares a jvm, so the jit's profile of a method is whatever the benchmarks before it left behind
+    //(benchmark_script.txt runs each benchmark in a fresh jvm to limit that). there's no blackhole either, only the
+    //volatile sink below, which keeps a result alive but won't stop the jit folding work that can be worked out
+    //ahead of time. so the numbers are for comparing versions of this code on one machine, run the same way, and not
+    //absolute costs. jmh itself won't generate benchmarks for classes in the default package, which all of these are
+
+    private static final int WARMUP_ITERATIONS = 3, MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+    private static final long SEED = 20181106L;
+
+    static volatile double sink; //results go in here so the jit can't drop the work
+
+
+    interface Operation {
+        //performs one batch of work and returns how many operations it was
+        long run();
+    }
+
+    private static class Result {
+        String name, params;
+        double mean, stDev;
+
+        Result(String name, String params, double mean, double stDev){
+            this.name = name;
+            this.params = params;
+            this.mean = mean;
+            this.stDev = stDev;
+        }
+    }
+
+
+    public static void main(String[] args){
+        String filter = args.length > 0 ? args[0] : "";
+        ArrayList<Result> results = new ArrayList<>();
+
+        if("replicationAndDeathRates".contains(filter)){
+            for(int n_bacteria : new int[]{10, 120, 1200}) results.add(benchmarkRates(n_bacteria));
+        }
+        if("rateKernel".contains(filter)){
+            SelfChecks.checkRateKernels();
+            for(int n_bacteria : new int[]{120, 1200}){
+                results.add(benchmarkRateKernel(n_bacteria, false));
+                if(RateKernel.VECTORISED) results.add(benchmarkRateKernel(n_bacteria, true));
+            }
+        }
+        if("micSource".contains(filter)){
+            SelfChecks.checkMICSource();
+            results.add(benchmarkMICSource(false));
+            results.add(benchmarkMICSource(true));
+        }
+        if("migrate".contains(filter)){
+            for(int system_size : new int[]{2, 5}) results.add(benchmarkMigrate(system_size));
+        }
+        if("performAction".contains(filter)){
+            for(UpdateScheme scheme : new UpdateScheme[]{UpdateScheme.TAU_LEAP, UpdateScheme.BINOMIAL_LEAP, UpdateScheme.CLONE_CLASS, UpdateScheme.HYBRID}){
+                for(int K : new int[]{120, 1200}){
+                    for(int system_size : new int[]{1, 3, 5}) results.add(benchmarkStep(scheme, K, system_size));
+                }
+            }
+        }
+        if("sweepCell".contains(filter)){
+            results.add(benchmarkSweepCell());
+        }
+        if("ensembleCell".contains(filter)){
+            results.add(benchmarkEnsembleCell());
+        }
+
+        writeResults(results, filter);
+    }
+
+
+    private static Result measure(String name, String params, Operation op){
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) timedIteration(op);
+
+        double[] throughputs = new double[MEASUREMENT_ITERATIONS];
+        double mean = 0.;
+        for(int i = 0; i < MEASUREMENT_ITERATIONS; i++){
+            throughputs[i] = timedIteration(op);
+            mean += throughputs[i]/MEASUREMENT_ITERATIONS;
+        }
+        double sumSq = 0.;
+        for(double t : throughputs) sumSq += (t - mean)*(t - mean);
+        double stDev = Math.sqrt(sumSq/(MEASUREMENT_ITERATIONS - 1.));
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %-40s %14.1f +- %12.1f ops/s", name, params, mean, stDev));
+        return new Result(name, params, mean, stDev);
+    }
+
+    private static double timedIteration(Operation op){
+        long ops = 0;
+        long start = System.nanoTime(), elapsed;
+        do{
+            ops += op.run();
+            elapsed = System.nanoTime() - start;
+        }while(elapsed < ITERATION_NANOS);
+        return ops/(elapsed*1e-9);
+    }
+
+
+    private static BioSystem grownSystem(UpdateScheme scheme, int K, int system_size, long seed){
+        //runs a fresh system forward until it's at least system_size microhabitats thick, so the step benchmarks
+        //work on a realistic population. det and K* are low so the biofilm grows quickly
+        BioSystem bs = new BioSystem(0.006, 0.45, 0.01, scheme, K, seed);
+        while(bs.getSystemSize() < system_size) bs.performAction();
+        return bs;
+    }
+
+
+    private static Result benchmarkRates(int n_bacteria){
+        //ops are single bacteria
+        Microhabitat mh = new Microhabitat(5., 2.71760274, 0.56002833, 0.6, Math.max(120, n_bacteria), false, SEED);
+        mh.addARandomBacterium_x_N(n_bacteria);
+        double[] g_and_d = new double[2];
+
+        return measure("replicationAndDeathRates", "N="+n_bacteria, () -> {
+            double total = 0.;
+            for(int i = 0; i < n_bacteria; i++){
+                mh.replicationAndDeathRates(i, g_and_d);
+                total += g_and_d[0] + g_and_d[1];
+            }
+            sink = total;
+            return n_bacteria;
+        });
+    }
+
+
+    private static Result benchmarkMICSource(boolean ziggurat){
+        //ops are single immigrant MICs, drawn in batches of 4 as the immigration step does
+        EventSampler rng = new EventSampler(SEED);
+        MICSource source = MICSource.of(BioSystem.SUSCEPTIBLE_SCALE, BioSystem.SUSCEPTIBLE_SIGMA);
+        double mu = Math.log(BioSystem.SUSCEPTIBLE_SCALE), sigma = BioSystem.SUSCEPTIBLE_SIGMA;
+        double[] mics = new double[4];
+
+        return measure("micSource", "normal="+(ziggurat ? "ziggurat" : "box-muller"), () -> {
+            double total = 0.;
+            for(int i = 0; i < 10_000; i++){
+                if(ziggurat){
+                    source.fill(mics, 0, mics.length, rng);
+                }else{
+                    for(int j = 0; j < mics.length; j++) mics[j] = Math.exp(mu + sigma*rng.nextGaussian());
+                }
+                total += mics[0] + mics[3];
+            }
+            sink = total;
+            return 10_000L*mics.length;
+        });
+    }
+
+
+    private static Result benchmarkRateKernel(int n_bacteria, boolean vector){
+        //ops are single bacteria, through both passes
+        EventSampler rng = new EventSampler(SEED);
+        double[] mics = new double[n_bacteria], g_max = new double[n_bacteria], d_rates = new double[n_bacteria];
+        double[] g_out = new double[n_bacteria], d_out = new double[n_bacteria];
+        for(int i = 0; i < n_bacteria; i++) mics[i] = Math.exp(Math.log(2.71760274) + 0.56002833*rng.nextGaussian());
+
+        return measure("rateKernel", "N="+n_bacteria+",path="+(vector ? "vector" : "scalar"), () -> {
+            for(int i = 0; i < 100; i++){
+                if(vector){
+                    VectorRateKernel.fill(5., 0.083, 0.018, mics, 0, n_bacteria, g_max, d_rates);
+                    VectorRateKernel.scale(g_max, d_rates, n_bacteria, 0.5, g_out, d_out);
+                }else{
+                    RateKernel.fillScalar(5., 0.083, 0.018, mics, 0, n_bacteria, g_max, d_rates);
+                    RateKernel.scaleScalar(g_max, d_rates, n_bacteria, 0.5, g_out, d_out);
+                }
+            }
+            sink = g_out[n_bacteria - 1] + d_out[0];
+            return 100L*n_bacteria;
+        });
+    }
+
+
+    private static Result benchmarkMigrate(int system_size){
+        //ops are single migrations, of a random bacterium out of a random non-empty microhabitat
+        BioSystem bs = grownSystem(UpdateScheme.TAU_LEAP, 120, system_size, SEED);
+        EventSampler rng = new EventSampler(SEED);
+
+        return measure("migrate", "system_size="+bs.getSystemSize()+",N="+bs.getTotalN(), () -> {
+            for(int i = 0; i < 1000; i++){
+                int mh_index = rng.nextInt(bs.getSystemSize());
+                int N = bs.getMicrohabitat(mh_index).getN();
+                if(N > 0) bs.migrate(mh_index, rng.nextInt(N));
+            }
+            return 1000;
+        });
+    }
+
+
+    private static Result benchmarkStep(UpdateScheme scheme, int K, int system_size){
+        //ops are single performAction calls. the system is regrown every 2000 steps so it stays near its starting size
+        BioSystem[] bs = {grownSystem(scheme, K, system_size, SEED)};
+        int[] steps = {0};
+        String params = "scheme="+scheme+",K="+K+",system_size="+system_size+",N="+bs[0].getTotalN();
+
+        return measure("performAction", params, () -> {
+            if(steps[0] >= 2000){
+                bs[0] = grownSystem(scheme, K, system_size, SEED + steps[0]);
+                steps[0] = 0;
+            }
+            for(int i = 0; i < 100; i++) bs[0].performAction();
+            steps[0] += 100;
+            sink = bs[0].getTotalN();
+            return 100;
+        });
+    }
+
+
+    private static Result benchmarkSweepCell(){
+        //ops are whole cells: 4 replicates of 48 h at tau = 0.01, through the sweep executor
+        SweepExecutor executor = new SweepExecutor();
+        long[] cell_seed = {SEED};
+        Result result = measure("sweepCell", "reps=4,duration=48,tau=0.01", () -> {
+            long seed = cell_seed[0]++;
+            Databox[] cell = executor.run(1, 4, (c, rep) -> BioSystem.varyingDeteriorationAndThreshold_subsubroutine(rep, 48., 0.6, 0.02, 0.01,
+                    UpdateScheme.TAU_LEAP, 120, RandomStreams.replicateSeed(seed, c, rep)));
+            sink = cell[0].getThickness();
+            return 1;
+        });
+        executor.shutdown();
+        return result;
+    }
+
+
+    private static Result benchmarkEnsembleCell(){
+        //sweepCell's cells, with the 4 replicates run in lock-step by one EnsembleEngine (on one thread, so compare
+        //per core)
+        long[] cell_seed = {SEED};
+        return measure("ensembleCell", "reps=4,duration=48,tau=0.01", () -> {
+            long seed = cell_seed[0]++;
+            long[] seeds = new long[4];
+            for(int rep = 0; rep < 4; rep++) seeds[rep] = RandomStreams.replicateSeed(seed, 0, rep);
+            Databox[] reps = new EnsembleEngine(0.02, 0.6, 0.01, UpdateScheme.TAU_LEAP, 120, seeds).run(48.);
+            sink = reps[0].getThickness();
+            return 1;
+        });
+    }
+
+
+    private static void writeResults(ArrayList<Result> results, String filter){
+        String label = System.getProperty("bench.label", "unlabelled");
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+        File directory = new File("benchmarks");
+        if(!directory.exists()) directory.mkdirs();
+        //each of benchmark_script.txt's jvms writes its own file
+        File file = new File(directory, "results-"+label+(filter.isEmpty() ? "" : "-"+filter)+"-"+timestamp+".csv");
+
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))){
+            bw.write("label,timestamp,java_version,benchmark,params,mode,score,score_stdev,units,iterations");
+            for(Result r : results){
+                bw.newLine();
+                bw.write(String.format(Locale.ROOT, "%s,%s,%s,%s,\"%s\",thrpt,%.4f,%.4f,ops/s,%d",
+                        label, timestamp, System.getProperty("java.version"), r.name, r.params, r.mean, r.stDev, MEASUREMENT_ITERATIONS));
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("results written to "+file.getPath());
+    }
+
+}
@@ -1,17 +1,54 @@
-import org.apache.commons.math3.distribution.PoissonDistribution;
-
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Random;
-import java.util.stream.IntStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 class BioSystem {
 
-    private Random rand = new Random();
-    //need to initialise these in the performAction method in order to incorporate the tau halving
-    private PoissonDistribution poiss_imigration;
-    private PoissonDistribution poiss_deterioration;
-    private PoissonDistribution poiss_migration;
-    private PoissonDistribution poiss_migration_edge;
+    //all of the event variates for this replicate come from here, the means are passed in per draw.
+    //it and the microhabitats' streams are all derived from replicate_seed (see RandomStreams)
+    private long replicate_seed;
+    private EventSampler sampler;
+    //the tau-leaping step's event buffers, reused from step to step
+    private StepArena arena = new StepArena();
+    //the tau-leaping step's migrants, exchanged once every microhabitat has been compacted
+    private MigrationExchange exchange = new MigrationExchange();
+    //the clone class step's migrants are held here (with their destination) until every microhabitat has been updated
+    private double[] migrant_mics = new double[16];
+    private int[] migrant_counts = new int[16];
+    private int[] migrant_destinations = new int[16];
+    private int n_held_migrants = 0;
+    //the rates of the bacteria in the microhabitat being stepped, filled a whole microhabitat at a time (see RateKernel)
+    private double[] g_rates = new double[16], d_rates = new double[16];
+
+    private UpdateScheme scheme = UpdateScheme.TAU_LEAP;
+    private int K = 120; //carrying capacity of each microhabitat
+
+    //used by the LOCAL_TAU scheme, where each microhabitat runs on its own clock between synchronisation points
+    private double[] local_times = new double[8];
+    private double[] leap_ends = new double[8]; //where each microhabitat's planned leap ends
+    private ArrayList<MigrantInbox> inboxes = new ArrayList<>();
+    private double tau_selection_epsilon = 0.03; //the cao-gillespie error control parameter
+
+    //used by the EXACT_SSA scheme. per-bacterium replication (before the density factor) and death propensities,
+    //one tree of each per microhabitat, with entries in the same order as the microhabitat's MICStore
+    private ArrayList<FenwickTree> replication_trees = new ArrayList<>();
+    private ArrayList<FenwickTree> death_trees = new ArrayList<>();
+    private double[] ssa_propensities = new double[32];
+
+    //used by the HYBRID scheme. an interior microhabitat switches to clone classes once it holds hybrid_threshold
+    //bacteria, and back to individuals if it drops below HYBRID_EXIT_FRACTION of that. 0 means HYBRID_THRESHOLD_FRACTION of K
+    private int hybrid_threshold = 0;
+    static final double HYBRID_THRESHOLD_FRACTION = 0.5, HYBRID_EXIT_FRACTION = 0.8;
+    //a clone class's event count is drawn from its langevin (normal) approximation once its mean is at least this,
+    //the same point at which EventSampler switches to its rejection samplers
+    private static final double LANGEVIN_MIN_MEAN = 10.;
 
 
     private double alpha, c_max; //steepness and max val of antimicrobial concn
@@ -22,22 +59,57 @@ class BioSystem {
 
     private double deterioration_rate;
     private double biofilm_threshold;
-    private double immigration_rate = 0.8;
-    private double migration_rate = 0.2;
+    private double immigration_rate = IMMIGRATION_RATE;
+    private double migration_rate = MIGRATION_RATE;
     private double tau;
     private double delta_x = 5.;
-    private int thickness_limit = 6; //this is how big the system can get before we exit. should reduce overall simulation duration todo-change back to 50 for big runs
+    private int thickness_limit = THICKNESS_LIMIT; //this is how big the system can get before we exit. should reduce overall simulation duration todo-change back to 50 for big runs
     private int detachments_counter = 0, deaths_counter = 0, replications_counter = 0, immigrations_counter = 0, tau_halves_counter = 0; //last one is the number of times tau had to be halved due to double events
 
+    //the grids of the two sweeps. these are fixed so that a replicate can be replayed from its cell index alone
+    private static final double DET_SWEEP_K_MIN = 0.45, DET_SWEEP_K_MAX = 0.95;
+    private static final double DET_SWEEP_DET_MIN = 0.006, DET_SWEEP_DET_MAX = 0.06;
+    private static final int DET_SWEEP_N_MEASUREMENTS = 20; //the number of measurements taken for deterioration and rho
+    private static final double DET_SWEEP_DURATION = 240.; //10 days
+    private static final double TAU_SWEEP_TAU_MIN = 0.01, TAU_SWEEP_TAU_MAX = 1.2;
+    private static final int TAU_SWEEP_N_MEASUREMENTS = 64; //the number of values used taken for tau
+    private static final double TAU_SWEEP_DURATION = 1000.; //1000 hours
+
+    private static final int SNAPSHOT_VERSION = 2; //2 added each microhabitat's population mode
+    //goes into the key of every spec sweep cell (see SweepSpec), so cached results are only reused by the engine that
+    //made them. bump it with any change that alters what a replicate gives for its seed
+    static final int ENGINE_VERSION = 2; //2 changed the order of LOCAL_TAU's leaps
+    static final int THICKNESS_LIMIT = 6;
+    //the parameters EnsembleEngine shares with the deterioration sweep's systems
+    static final double IMMIGRATION_RATE = 0.8, MIGRATION_RATE = 0.2;
+    static final double SUSCEPTIBLE_SCALE = 2.71760274, SUSCEPTIBLE_SIGMA = 0.56002833;
+    //the columns of the sweeps' output files, in the order of Databox.allDataInAnArray
+    private static final String[] SWEEP_HEADERS = {"tau", "sim_time", "sim_time_stDev", "exit_time", "exit_time_stDev", "K*", "det_rate", "thickness", "thick_stDev",
+            "n_deaths", "n_detachments", "n_immigrations", "n_replications", "n_tau_halves",
+            "n_deaths_stDev", "n_detachments_stDev", "n_immigrations_stDev", "n_replications_stDev", "n_tau_halves_stDev",
+            "exit_time_q10", "exit_time_q50", "exit_time_q90", "n_reps"};
+
+
+    private BioSystem(){
+        //only used when restoring from a snapshot
+    }
 
     public BioSystem(double deterioration_rate, double biofilm_threshold, double tau){
+        this(deterioration_rate, biofilm_threshold, tau, UpdateScheme.TAU_LEAP, 120, ThreadLocalRandom.current().nextLong());
+    }
+
+    public BioSystem(double deterioration_rate, double biofilm_threshold, double tau, UpdateScheme scheme, int K, long replicate_seed){
 
         //this constructor is used purely for the detachment rate determination in the biocide free environment
+        this.replicate_seed = replicate_seed;
+        this.sampler = new EventSampler(RandomStreams.streamSeed(replicate_seed, RandomStreams.EVENT_STREAM));
+        this.scheme = scheme;
+        this.K = K;
         this.alpha = 0.;
         this.c_max = 0.;
         //this scale and sigma correspond to 99% susceptible
-        this.scale = 2.71760274;
-        this.sigma = 0.56002833;
+        this.scale = SUSCEPTIBLE_SCALE;
+        this.sigma = SUSCEPTIBLE_SIGMA;
         this.microhabitats = new ArrayList<>();
         this.time_elapsed = 0.;
         this.exit_time = 0.;
@@ -46,14 +118,17 @@ class BioSystem {
         this.deterioration_rate = deterioration_rate;
         this.biofilm_threshold = biofilm_threshold;
 
-        microhabitats.add(new Microhabitat(calc_C_i(0, c_max, alpha, delta_x), scale, sigma, biofilm_threshold));
+        microhabitats.add(newMicrohabitat(0));
 
         microhabitats.get(0).setSurface();
         microhabitats.get(0).addARandomBacterium_x_N(5);
     }
 
-    private BioSystem(double alpha, double c_max, double scale, double sigma, double tau_variable){
+    private BioSystem(double alpha, double c_max, double scale, double sigma, double tau_variable, UpdateScheme scheme, long replicate_seed){
         //constructor used to investigate the effects of varying tau step size
+        this.replicate_seed = replicate_seed;
+        this.sampler = new EventSampler(RandomStreams.streamSeed(replicate_seed, RandomStreams.EVENT_STREAM));
+        this.scheme = scheme;
         this.alpha = alpha;
         this.c_max = c_max;
         this.scale = scale;
@@ -67,7 +142,32 @@ class BioSystem {
         this.biofilm_threshold = 0.6;
         this.deterioration_rate = 0.002;
 
-        microhabitats.add(new Microhabitat(calc_C_i(0, this.c_max, this.alpha, this.delta_x), scale, sigma, this.biofilm_threshold));
+        microhabitats.add(newMicrohabitat(0));
+        microhabitats.get(0).setSurface();
+        microhabitats.get(0).addARandomBacterium_x_N(5);
+    }
+
+    private BioSystem(SweepSpec.Cell cell, long replicate_seed){
+        //constructor used by spec sweeps, where every parameter comes from the cell
+        this.replicate_seed = replicate_seed;
+        this.sampler = new EventSampler(RandomStreams.streamSeed(replicate_seed, RandomStreams.EVENT_STREAM));
+        this.scheme = cell.scheme;
+        this.K = cell.K;
+        this.alpha = cell.alpha;
+        this.c_max = cell.c_max;
+        this.scale = cell.scale;
+        this.sigma = cell.sigma;
+        this.microhabitats = new ArrayList<>();
+        this.time_elapsed = 0.;
+        this.exit_time = 0.;
+        this.immigration_index = 0;
+        this.tau = cell.tau;
+        this.deterioration_rate = cell.det_rate;
+        this.biofilm_threshold = cell.K_star;
+        this.thickness_limit = cell.thickness_limit;
+        this.hybrid_threshold = cell.hybrid_threshold;
+
+        microhabitats.add(newMicrohabitat(0));
         microhabitats.get(0).setSurface();
         microhabitats.get(0).addARandomBacterium_x_N(5);
     }
@@ -79,12 +179,13 @@ class BioSystem {
     private int getImmigrations_counter(){return immigrations_counter;}
     private int getTau_halves_counter(){return tau_halves_counter;}
 
-    private double getTimeElapsed(){return time_elapsed;}
+    double getTimeElapsed(){return time_elapsed;}
     private double getExit_time(){return exit_time;}
-    private int getSystemSize(){return microhabitats.size();}
+    int getSystemSize(){return microhabitats.size();}
+    Microhabitat getMicrohabitat(int mh_index){return microhabitats.get(mh_index);}
 
 
-    private int getTotalN(){
+    int getTotalN(){
         int runningTotal = 0;
         for(Microhabitat m : microhabitats) {
             runningTotal += m.getN();
@@ -92,6 +193,14 @@ class BioSystem {
         return runningTotal;
     }
 
+    long bufferCapacity(){
+        //the total length of the grow-only buffers a step runs on (see StepArena). a step that leaves it unchanged
+        //didn't need to grow any of them, so anything it allocated was a leak (see SelfChecks)
+        long capacity = arena.capacity() + exchange.capacity() + g_rates.length + d_rates.length;
+        for(Microhabitat mh : microhabitats) capacity += mh.bufferCapacity();
+        return capacity;
+    }
+
     private int getBiofilmEdge(){
         int edgeIndex = 0;
         for(int i = 0; i < microhabitats.size(); i++){
@@ -120,27 +229,47 @@ class BioSystem {
         return c_max*Math.exp(-alpha*i*delta_x);
     }
 
+    private Microhabitat newMicrohabitat(int i){
+        return new Microhabitat(calc_C_i(i, c_max, alpha, delta_x), scale, sigma, biofilm_threshold, K, scheme == UpdateScheme.CLONE_CLASS,
+                RandomStreams.microhabitatStreamSeed(replicate_seed, i));
+    }
+
+
+    private int migrationDestination(int mh_index){
+        //bacteria at the surface can only move up, bacteria at the edge can only move down
+        if(microhabitats.get(mh_index).isSurface()) return mh_index+1;
+        if(microhabitats.get(mh_index).isImmigration_zone()) return mh_index-1;
+        return sampler.nextBoolean() ? mh_index+1 : mh_index-1;
+    }
+
 
     public void migrate(int mh_index, int bac_index){
 
-        double migrating_bac = microhabitats.get(mh_index).getPopulation().get(bac_index);
+        double migrating_bac = microhabitats.get(mh_index).getMIC(bac_index);
         microhabitats.get(mh_index).removeABacterium(bac_index);
+        microhabitats.get(migrationDestination(mh_index)).addABacterium(migrating_bac);
+    }
 
-        if(microhabitats.get(mh_index).isSurface()){
-            microhabitats.get(mh_index+1).addABacterium(migrating_bac);
-        }else if(microhabitats.get(mh_index).isImmigration_zone()){
-            microhabitats.get(mh_index-1).addABacterium(migrating_bac);
-        }else{
-            if(rand.nextBoolean()){
-                microhabitats.get(mh_index+1).addABacterium(migrating_bac);
-            }else{
-                microhabitats.get(mh_index-1).addABacterium(migrating_bac);
-            }
+
+    private void holdMigrants(double mic, int count, int destination){
+        if(count == 0) return;
+        if(n_held_migrants == migrant_mics.length){
+            migrant_mics = Arrays.copyOf(migrant_mics, 2*n_held_migrants);
+            migrant_counts = Arrays.copyOf(migrant_counts, 2*n_held_migrants);
+            migrant_destinations = Arrays.copyOf(migrant_destinations, 2*n_held_migrants);
         }
+        migrant_mics[n_held_migrants] = mic;
+        migrant_counts[n_held_migrants] = count;
+        migrant_destinations[n_held_migrants] = destination;
+        n_held_migrants++;
     }
 
 
     private void updateBiofilmSize(){
+        updateBiofilmSize(time_elapsed);
+    }
+
+    private void updateBiofilmSize(double current_time){
         //once the edge microhabitat is sufficiently populated, this adds another microhabitat onto the system list
         //which is then used as the immigration zone
 
@@ -150,7 +279,7 @@ class BioSystem {
             microhabitats.get(immigration_index).setImmigration_zone(false);
 
             int i = microhabitats.size();
-            microhabitats.add(new Microhabitat(BioSystem.calc_C_i(i, c_max, alpha, delta_x), scale, sigma, biofilm_threshold));
+            microhabitats.add(newMicrohabitat(i));
             immigration_index = i;
             microhabitats.get(immigration_index).setImmigration_zone(true);
         }
@@ -158,65 +287,128 @@ class BioSystem {
         //this stops sims going onn unnecessarily too long. if the biofilm reaches the thickness limit then we record the
         //time this happened at and move on
         if(getSystemSize()==thickness_limit){
-            exit_time = time_elapsed;
+            exit_time = current_time;
             time_elapsed = 9e9; //this way the time elapsed is now way above the duration value, so the simulation will stop
         }
     }
 
 
     public void performAction(){
+        boolean metrics = SimulationMetrics.on();
+        double t_before = time_elapsed;
+        long events_before = metrics ? eventCount() : 0;
+
+        switch(scheme){
+            case CLONE_CLASS: cloneClassStep(); break;
+            case BINOMIAL_LEAP: tauLeapStep(true); break;
+            case LOCAL_TAU: localTimeStep(); break;
+            case EXACT_SSA: exactStep(); break;
+            case HYBRID: hybridStep(); break;
+            default: tauLeapStep(false); break;
+        }
+
+        //a system that's hit the thickness limit has had its time set way past the end, the step ended at exit_time
+        if(metrics) SimulationMetrics.step((exit_time > 0. ? exit_time : time_elapsed) - t_before, eventCount() - events_before);
+    }
+
+
+    private long eventCount(){
+        return (long)deaths_counter + detachments_counter + replications_counter + immigrations_counter;
+    }
+
+
+    void performActionUntil(double t_limit){
+        //performAction, but with the step cut short if it would take the system past t_limit. a step that ends a
+        //rounding error short of t_limit is put exactly on it
+        double full_tau = tau;
+        if(t_limit - time_elapsed < tau) tau = Math.max(t_limit - time_elapsed, 0.);
+        try{
+            if(tau > 0.) performAction();
+        }finally{
+            tau = full_tau;
+        }
+        if(Math.abs(time_elapsed - t_limit) <= 1e-9*full_tau) time_elapsed = t_limit;
+    }
+
+
+    void recordObservation(TrajectoryRecorder.Buffer trajectory){
+        int system_size = microhabitats.size();
+        int slot = trajectory.beginSample(time_elapsed, system_size, getBiofilmEdge());
+        trajectory.setCounters(slot, deaths_counter, detachments_counter, immigrations_counter, replications_counter, tau_halves_counter);
+        int total_N = 0;
+        for(int m = 0; m < system_size; m++){
+            int N = microhabitats.get(m).getN();
+            trajectory.setN(slot, m, N);
+            total_N += N;
+        }
+        trajectory.commitSample(slot, total_N);
+    }
+
+
+    private int sampleAtMostOnceEvent(double mean, boolean capped){
+        //deaths, migrations and detachments can only happen once to a bacterium.
+        //with poisson leaping more than one is a double event (and the step is redrawn with half the tau),
+        //with capped leaping it's a bernoulli trial on the probability of at least one event, so it can't happen
+        if(capped) return sampler.bernoulli(-Math.expm1(-mean)) ? 1 : 0;
+        return sampler.poisson(mean);
+    }
+
+
+    private void tauLeapStep(boolean capped){
+        //capped is the binomial leaping mode, see sampleAtMostOnceEvent
 
         double tau_step = tau;
+        boolean metrics = SimulationMetrics.on();
+        long phase_start = metrics ? System.nanoTime() : 0L;
+        long n_sampled = 0; //bacteria sampled over every pass, the restarted ones included
 
         int system_size = microhabitats.size();
-        int[][] replication_allocations;
-        int[][] death_allocations;
-        int[][] migration_allocations;
+        arena.beginStep(system_size);
+        int[][] replication_allocations = arena.replications;
+        int[][] death_allocations = arena.deaths;
+        int[][] migration_allocations = arena.migrations;
+        int[] original_popsizes = arena.original_popsizes;
         int[] detachment_allocations;
-        int[] original_popsizes;
         int n_immigrants;
 
         whileloop:
         while(true) {
-            poiss_imigration = new PoissonDistribution(immigration_rate*tau_step);
-            poiss_deterioration = new PoissonDistribution(deterioration_rate*tau_step);
-            poiss_migration = new PoissonDistribution(migration_rate*tau_step);
-            poiss_migration_edge = new PoissonDistribution(0.5*migration_rate*tau_step);
+            //the means of the per-step events, these need recalculating with each tau halving
+            double mean_deterioration = deterioration_rate*tau_step;
+            double mean_migration = migration_rate*tau_step;
+            double mean_migration_edge = 0.5*migration_rate*tau_step;
 
-            replication_allocations = new int[system_size][];
-            death_allocations = new int[system_size][];
-            migration_allocations = new int[system_size][];
-            original_popsizes = new int[system_size];
-            detachment_allocations = new int[microhabitats.get(immigration_index).getN()];
+            detachment_allocations = arena.detachments(microhabitats.get(immigration_index).getN());
 
             for(int mh_index = 0; mh_index < system_size; mh_index++) {
 
                 //we iterate through all the bacteria and calculate the events which they'll experience
-                int mh_pop = microhabitats.get(mh_index).getN();
-                int[] n_replications = new int[mh_pop];
-                int[] n_deaths = new int[mh_pop];
-                int[] n_migrations = new int[mh_pop];
+                Microhabitat mh = microhabitats.get(mh_index);
+                int mh_pop = mh.getN();
+                fillRates(mh);
+                arena.beginMicrohabitat(mh_index, mh_pop);
+                int[] n_replications = replication_allocations[mh_index];
+                int[] n_deaths = death_allocations[mh_index];
+                int[] n_migrations = migration_allocations[mh_index];
 
                 for(int bac_index = 0; bac_index < mh_pop; bac_index++) {
+                    n_sampled++;
                     ///////// REPLICATIONS AND DEATHS ///////////////////
-                    double[] g_and_d_rate = microhabitats.get(mh_index).replicationAndDeathRates(bac_index);
-                    double g_rate = g_and_d_rate[0], d_rate = Math.abs(g_and_d_rate[1]);
-
-                    if(g_rate > 0.) {
-                        PoissonDistribution poiss_replication = new PoissonDistribution(g_rate*tau_step);
-                        poiss_replication.reseedRandomGenerator(rand.nextLong());
-                        n_replications[bac_index] = poiss_replication.sample();
-                    }
+                    double g_rate = g_rates[bac_index], d_rate = d_rates[bac_index];
 
                     //d_rate is always > 0 due to inclusion of uniform death rate, so no need for the if statements
                     //seen in earlier versions
-                    PoissonDistribution poiss_death = new PoissonDistribution(d_rate*tau_step);
-                    poiss_death.reseedRandomGenerator(rand.nextLong());
-                    n_deaths[bac_index] = poiss_death.sample();
+                    n_deaths[bac_index] = sampleAtMostOnceEvent(d_rate*tau_step, capped);
+
+                    //replications of bacteria which die in this step are never carried out, so don't bother drawing them
+                    if(g_rate > 0. && n_deaths[bac_index] == 0) {
+                        n_replications[bac_index] = sampler.poisson(g_rate*tau_step);
+                    }
 
                     //bacteria can't die twice, so need to handle this
                     if(n_deaths[bac_index] > 1) {
                         tau_halves_counter++;
+                        if(metrics) restarted(SimulationMetrics.Cause.DEATH, mh_index, bac_index);
                         tau_step /= 2;
                         continue whileloop;
                     }
@@ -231,13 +423,14 @@ class BioSystem {
                         //only do migrations if there's multiple microhabs
                         if(immigration_index > 0) {
                             if(mh_index == 0 || mh_index == immigration_index) {
-                                n_migrations[bac_index] = poiss_migration_edge.sample();
+                                n_migrations[bac_index] = sampleAtMostOnceEvent(mean_migration_edge, capped);
                             } else {
-                                n_migrations[bac_index] = poiss_migration.sample();
+                                n_migrations[bac_index] = sampleAtMostOnceEvent(mean_migration, capped);
                             }
                             //check for double events
                             if(n_migrations[bac_index] > 1) {
                                 //tau_halves_counter++;
+                                if(metrics) restarted(SimulationMetrics.Cause.MIGRATION, mh_index, bac_index);
                                 tau_step /= 2.;
                                 continue whileloop;
                             }
@@ -246,10 +439,11 @@ class BioSystem {
                         //migrations sorted, now do detachments
                         //detaching bacteria can't migrate
                         if(mh_index == immigration_index){
-                            detachment_allocations[bac_index] = poiss_deterioration.sample();
+                            detachment_allocations[bac_index] = sampleAtMostOnceEvent(mean_deterioration, capped);
                             //check for double events
                             if( detachment_allocations[bac_index] > 1) {
                                 //tau_halves_counter++;
+                                if(metrics) restarted(SimulationMetrics.Cause.DETACHMENT, mh_index, bac_index);
                                 tau_step /= 2.;
                                 continue whileloop;
                             }
@@ -263,78 +457,650 @@ class BioSystem {
                     }
                     //////////////////////////////////////////////////////
                 }
-                replication_allocations[mh_index] = n_replications;
-                death_allocations[mh_index] = n_deaths;
-                migration_allocations[mh_index] = n_migrations;
                 original_popsizes[mh_index] = microhabitats.get(mh_index).getN();
             }
-            n_immigrants = poiss_imigration.sample();
+            n_immigrants = sampler.poisson(immigration_rate*tau_step);
             break whileloop;
         }
+        if(metrics){
+            SimulationMetrics.sampled(n_sampled);
+            phase_start = phaseDone(SimulationMetrics.Phase.SAMPLING, phase_start);
+        }
 
 
         //now we carry out the actions
+        //deaths, detachments and migrations only flag the bacteria, each microhabitat is then compacted in one pass.
+        //migrants wait in their microhabitat's outbox, and are exchanged once all the compactions are done
+        exchange.clear(system_size);
         for(int mh_index = 0; mh_index < system_size; mh_index++){
-            for(int bac_index = original_popsizes[mh_index]-1; bac_index >= 0; bac_index--){
+            Microhabitat mh = microhabitats.get(mh_index);
+            boolean[] leaving = arena.leaving(original_popsizes[mh_index]);
+
+            for(int bac_index = 0; bac_index < original_popsizes[mh_index]; bac_index++){
 
                 if(death_allocations[mh_index][bac_index]!= 0) {
-                    microhabitats.get(mh_index).removeABacterium(bac_index);
+                    leaving[bac_index] = true;
                     deaths_counter++;
                 }
 
                 else{
-                    microhabitats.get(mh_index).replicateABacterium_x_N(bac_index, replication_allocations[mh_index][bac_index]);
+                    mh.replicateABacterium_x_N(bac_index, replication_allocations[mh_index][bac_index]);
                     replications_counter += replication_allocations[mh_index][bac_index];
 
-                    if(system_size > 1){
-                        if(migration_allocations[mh_index][bac_index] != 0) migrate(mh_index, bac_index);
+                    if(mh_index == immigration_index && detachment_allocations[bac_index] != 0){
+                        leaving[bac_index] = true;
+                        detachments_counter++;
                     }
 
-                    if(mh_index == immigration_index){
-                        if(detachment_allocations[bac_index] != 0) {
-                            microhabitats.get(mh_index).removeABacterium(bac_index);
-                            detachments_counter++;
-                        }
+                    else if(system_size > 1 && migration_allocations[mh_index][bac_index] != 0){
+                        leaving[bac_index] = true;
+                        exchange.add(mh_index, mh.getMIC(bac_index));
                     }
                 }
             }
+            mh.removeFlaggedBacteria(leaving, original_popsizes[mh_index]);
         }
 
+        exchange.exchange(microhabitats, sampler);
+        if(metrics) phase_start = phaseDone(SimulationMetrics.Phase.APPLYING_EVENTS, phase_start);
+
         immigrate(immigration_index, n_immigrants);
         immigrations_counter += n_immigrants;
+        if(metrics) phase_start = phaseDone(SimulationMetrics.Phase.IMMIGRATION, phase_start);
         updateBiofilmSize();
+        if(metrics) phaseDone(SimulationMetrics.Phase.BIOFILM_GROWTH, phase_start);
         //update the time elapsed in the system by the value of tau used in the final events
         time_elapsed += tau_step;
 
     }
 
 
+    private void restarted(SimulationMetrics.Cause cause, int mh_index, int bac_index){
+        //everything sampled in the pass so far is thrown away
+        long wasted = bac_index + 1;
+        for(int m = 0; m < mh_index; m++) wasted += microhabitats.get(m).getN();
+        SimulationMetrics.restart(cause, wasted);
+    }
+
+    private static long phaseDone(SimulationMetrics.Phase phase, long phase_start){
+        long now = System.nanoTime();
+        SimulationMetrics.phase(phase, now - phase_start);
+        return now;
+    }
+
+
+    private void cloneClassStep(){
+        //each event type is drawn once per clone class instead of once per bacterium.
+        //deaths, detachments and migrations are at most once per bacterium, so they're binomial with the probability
+        //of at least one event in tau. this means there are no double events and tau is never halved.
+        //as in the per-bacterium step, dead bacteria don't replicate, migrate or detach, replications of
+        //migrating/detaching bacteria stay in the microhabitat, and detachment takes precedence over migration
+        int system_size = microhabitats.size();
+        double p_detachment = -Math.expm1(-deterioration_rate*tau);
+        double p_migration = -Math.expm1(-migration_rate*tau);
+        double p_migration_edge = -Math.expm1(-0.5*migration_rate*tau);
+
+        n_held_migrants = 0;
+        for(int mh_index = 0; mh_index < system_size; mh_index++){
+            Microhabitat mh = microhabitats.get(mh_index);
+            CloneTable clones = mh.getClones();
+            //the rates all use the population at the start of the step
+            double density_factor = mh.densityFactor();
+            int n_classes = clones.getN_classes();
+
+            for(int c = 0; c < n_classes; c++){
+                int n = clones.getCount(c);
+                double g_rate = clones.getMaxReplicationRate(c)*density_factor, d_rate = Math.abs(clones.getDeathRate(c));
+
+                int n_deaths = sampler.binomial(n, -Math.expm1(-d_rate*tau));
+                int n_survivors = n - n_deaths;
+                int n_replications = g_rate > 0. ? sampler.poisson(n_survivors*g_rate*tau) : 0;
+
+                int n_detachments = mh_index == immigration_index ? sampler.binomial(n_survivors, p_detachment) : 0;
+                int n_migrations = 0;
+                if(immigration_index > 0){
+                    double p_mig = (mh_index == 0 || mh_index == immigration_index) ? p_migration_edge : p_migration;
+                    n_migrations = sampler.binomial(n_survivors - n_detachments, p_mig);
+                }
+
+                if(n_migrations > 0){
+                    double mic = clones.getMIC(c);
+                    if(mh.isSurface()) holdMigrants(mic, n_migrations, mh_index+1);
+                    else if(mh.isImmigration_zone()) holdMigrants(mic, n_migrations, mh_index-1);
+                    else{
+                        int n_up = sampler.binomial(n_migrations, 0.5);
+                        holdMigrants(mic, n_up, mh_index+1);
+                        holdMigrants(mic, n_migrations - n_up, mh_index-1);
+                    }
+                }
+
+                clones.setCount(c, n - n_deaths - n_detachments - n_migrations + n_replications);
+                deaths_counter += n_deaths;
+                detachments_counter += n_detachments;
+                replications_counter += n_replications;
+            }
+            clones.removeEmptyClasses();
+        }
+
+        for(int m = 0; m < n_held_migrants; m++){
+            microhabitats.get(migrant_destinations[m]).addClones(migrant_mics[m], migrant_counts[m]);
+        }
+
+        int n_immigrants = sampler.poisson(immigration_rate*tau);
+        immigrate(immigration_index, n_immigrants);
+        immigrations_counter += n_immigrants;
+        updateBiofilmSize();
+        time_elapsed += tau;
+    }
+
+
+    private void localTimeStep(){
+        //advances the system to time_elapsed + tau, but each microhabitat gets there in its own leaps, sized from its
+        //own rates. tau is then just the synchronisation interval, the sparse immigration zone doesn't get dragged down
+        //to the small steps the dense microhabitats next to the surface need.
+        //each microhabitat plans its next leap as soon as it's finished the last one, and the planned leap that ends
+        //soonest is always the one done next, so leaps are done in order of their end times and no clock is ever past
+        //the end of the leap being done. migrants are stamped with the end of the leap they left in and sit in the
+        //destination's inbox until the destination finishes the leap that the stamp falls in, so they land at the end
+        //of the leap they arrived during, as they do in the synchronous schemes. everything is in sync again at the
+        //end of the call.
+        double sync_time = time_elapsed + tau;
+        ensureLocalClocks();
+        for(int m = 0; m < microhabitats.size(); m++) planLocalLeap(m, sync_time);
+
+        while(true){
+            int mh_index = -1;
+            for(int m = 0; m < microhabitats.size(); m++){
+                if(local_times[m] < sync_time && (mh_index < 0 || leap_ends[m] < leap_ends[mh_index])) mh_index = m;
+            }
+            if(mh_index < 0) break;
+
+            double t_end = leap_ends[mh_index];
+            double tau_local = t_end - local_times[mh_index];
+            leapMicrohabitat(mh_index, tau_local, t_end, false);
+            local_times[mh_index] = t_end;
+            inboxes.get(mh_index).deliverArrivedBy(t_end, microhabitats.get(mh_index));
+
+            if(mh_index == immigration_index){
+                int n_immigrants = sampler.poisson(immigration_rate*tau_local);
+                immigrate(immigration_index, n_immigrants);
+                immigrations_counter += n_immigrants;
+
+                int old_size = microhabitats.size();
+                updateBiofilmSize(t_end);
+                if(getSystemSize() == thickness_limit) return;
+                if(microhabitats.size() > old_size){
+                    ensureLocalClocks();
+                    local_times[immigration_index] = t_end;
+                    planLocalLeap(immigration_index, sync_time);
+                }
+            }
+            planLocalLeap(mh_index, sync_time);
+        }
+
+        for(int m = 0; m < microhabitats.size(); m++) inboxes.get(m).deliverArrivedBy(sync_time, microhabitats.get(m));
+        time_elapsed = sync_time;
+    }
+
+
+    private void planLocalLeap(int mh_index, double sync_time){
+        //the end of the microhabitat's next leap, from its state now. nothing reaches it before then
+        double t_now = local_times[mh_index];
+        leap_ends[mh_index] = t_now < sync_time ? Math.min(t_now + selectLocalTau(mh_index), sync_time) : sync_time;
+    }
+
+
+    private void ensureLocalClocks(){
+        //new microhabitats get a clock (set to the current synchronisation time) and an inbox
+        if(local_times.length < microhabitats.size()){
+            local_times = Arrays.copyOf(local_times, 2*microhabitats.size());
+            leap_ends = Arrays.copyOf(leap_ends, local_times.length);
+        }
+        while(inboxes.size() < microhabitats.size()){
+            local_times[inboxes.size()] = time_elapsed;
+            inboxes.add(new MigrantInbox());
+        }
+    }
+
+
+    private void fillRates(Microhabitat mh){
+        //g_rates and d_rates for every bacterium in mh, at its current density
+        if(g_rates.length < mh.getN()){
+            g_rates = new double[Math.max(mh.getN(), 2*g_rates.length)];
+            d_rates = new double[g_rates.length];
+        }
+        mh.replicationAndDeathRates(g_rates, d_rates);
+    }
+
+
+    private double selectLocalTau(int mh_index){
+        //cao-gillespie (2006) tau selection, with the population of the microhabitat as the only species.
+        //mu and sigma^2 are the expected change and variance of N per unit time, from every reaction acting on it
+        Microhabitat mh = microhabitats.get(mh_index);
+        int N = mh.getN();
+        fillRates(mh);
+
+        double g_total = 0., d_total = 0.;
+        for(int bac_index = 0; bac_index < N; bac_index++){
+            g_total += Math.max(g_rates[bac_index], 0.); //negative over K, where nothing replicates
+            d_total += d_rates[bac_index];
+        }
+        double out_total = immigration_index > 0 ? N*mh.migrate_rate() : 0.;
+        double in_total = 0.;
+        if(mh_index == immigration_index){
+            out_total += N*deterioration_rate;
+            in_total += immigration_rate;
+        }
+
+        double mu = g_total + in_total - d_total - out_total;
+        double sigma_sq = g_total + in_total + d_total + out_total;
+        double bound = Math.max(tau_selection_epsilon*N, 1.);
+
+        double tau_mu = mu != 0. ? bound/Math.abs(mu) : Double.POSITIVE_INFINITY;
+        double tau_sigma = sigma_sq > 0. ? bound*bound/sigma_sq : Double.POSITIVE_INFINITY;
+        return Math.min(tau_mu, tau_sigma);
+    }
+
+
+    private void leapMicrohabitat(int mh_index, double tau_local, double arrival_time, boolean hold_migrants){
+        //one binomial leap of a single microhabitat (see sampleAtMostOnceEvent), with its migrants sent to the
+        //inboxes of its neighbours (or held, for HYBRID) rather than added to them directly
+        Microhabitat mh = microhabitats.get(mh_index);
+        int mh_pop = mh.getN();
+        fillRates(mh); //offspring are appended during the loop, but the rates of the first mh_pop don't change
+        double mean_migration = mh.migrate_rate()*tau_local;
+        double mean_deterioration = deterioration_rate*tau_local;
+        boolean[] leaving = arena.leaving(mh_pop);
+
+        for(int bac_index = 0; bac_index < mh_pop; bac_index++){
+            if(sampleAtMostOnceEvent(d_rates[bac_index]*tau_local, true) > 0){
+                leaving[bac_index] = true;
+                deaths_counter++;
+                continue;
+            }
+
+            double g_rate = g_rates[bac_index];
+            if(g_rate > 0.){
+                int n_replications = sampler.poisson(g_rate*tau_local);
+                mh.replicateABacterium_x_N(bac_index, n_replications);
+                replications_counter += n_replications;
+            }
+
+            if(mh_index == immigration_index && sampleAtMostOnceEvent(mean_deterioration, true) > 0){
+                leaving[bac_index] = true;
+                detachments_counter++;
+            }
+            else if(immigration_index > 0 && sampleAtMostOnceEvent(mean_migration, true) > 0){
+                leaving[bac_index] = true;
+                if(hold_migrants) holdMigrants(mh.getMIC(bac_index), 1, migrationDestination(mh_index));
+                else inboxes.get(migrationDestination(mh_index)).add(mh.getMIC(bac_index), arrival_time);
+            }
+        }
+        mh.removeFlaggedBacteria(leaving, mh_pop);
+    }
+
+
+    private void hybridStep(){
+        //the surface, the immigration zone and any sparse microhabitat are leaped bacterium by bacterium, as in
+        //leapMicrohabitat. the crowded interior of a thick biofilm, where the dynamics are close to deterministic, is
+        //held as clone classes and each class's events are drawn at once (see langevinMicrohabitat), so its cost goes
+        //with the number of distinct MICs rather than the number of bacteria.
+        //which regime each microhabitat is in is settled at the start of the step. every microhabitat's rates use its
+        //population at the start of the step, and the migrants are held until they've all been updated
+        int system_size = microhabitats.size();
+        updateRegimes();
+
+        n_held_migrants = 0;
+        for(int mh_index = 0; mh_index < system_size; mh_index++){
+            if(microhabitats.get(mh_index).hasCloneClasses()) langevinMicrohabitat(mh_index);
+            else leapMicrohabitat(mh_index, tau, time_elapsed + tau, true);
+        }
+        for(int m = 0; m < n_held_migrants; m++){
+            microhabitats.get(migrant_destinations[m]).addCopies(migrant_mics[m], migrant_counts[m]);
+        }
+
+        int n_immigrants = sampler.poisson(immigration_rate*tau);
+        immigrate(immigration_index, n_immigrants);
+        immigrations_counter += n_immigrants;
+        updateBiofilmSize();
+        time_elapsed += tau;
+    }
+
+
+    private void updateRegimes(){
+        //the surface and the immigration zone are always individuals. the band between the thresholds stops a
+        //microhabitat sitting at the threshold from switching back and forth every step
+        int enter = hybrid_threshold > 0 ? hybrid_threshold : (int)Math.ceil(HYBRID_THRESHOLD_FRACTION*K);
+        int exit = (int)Math.ceil(HYBRID_EXIT_FRACTION*enter);
+        for(Microhabitat mh : microhabitats){
+            boolean interior = !mh.isSurface() && !mh.isImmigration_zone();
+            if(!mh.hasCloneClasses()){
+                if(interior && mh.getN() >= enter) mh.useCloneClasses(true);
+            }else if(!interior || mh.getN() < exit){
+                mh.useCloneClasses(false);
+            }
+        }
+    }
+
+
+    private void langevinMicrohabitat(int mh_index){
+        //cloneClassStep's update of one (interior) microhabitat, but with each count drawn from the chemical langevin
+        //equation, mean + sqrt(variance)*Z rounded to a whole number of bacteria, once its mean's big enough for that to
+        //be accurate. below that it's the exact binomial or poisson draw, so a class only goes over to the langevin
+        //draws where they agree with the exact ones, and the switch doesn't change the physics
+        Microhabitat mh = microhabitats.get(mh_index);
+        CloneTable clones = mh.getClones();
+        double density_factor = mh.densityFactor();
+        double p_migration = immigration_index > 0 ? -Math.expm1(-mh.migrate_rate()*tau) : 0.;
+        int n_classes = clones.getN_classes();
+
+        for(int c = 0; c < n_classes; c++){
+            int n = clones.getCount(c);
+            double g_rate = clones.getMaxReplicationRate(c)*density_factor, d_rate = Math.abs(clones.getDeathRate(c));
+
+            int n_deaths = langevinBinomial(n, -Math.expm1(-d_rate*tau));
+            int n_survivors = n - n_deaths;
+            int n_replications = g_rate > 0. ? langevinPoisson(n_survivors*g_rate*tau) : 0;
+            int n_migrations = langevinBinomial(n_survivors, p_migration);
+
+            if(n_migrations > 0){
+                int n_up = langevinBinomial(n_migrations, 0.5);
+                holdMigrants(clones.getMIC(c), n_up, mh_index+1);
+                holdMigrants(clones.getMIC(c), n_migrations - n_up, mh_index-1);
+            }
+
+            clones.setCount(c, n - n_deaths - n_migrations + n_replications);
+            deaths_counter += n_deaths;
+            replications_counter += n_replications;
+        }
+        clones.removeEmptyClasses();
+    }
+
+    private int langevinPoisson(double mean){
+        if(mean < LANGEVIN_MIN_MEAN) return sampler.poisson(mean);
+        return (int)Math.max(0L, Math.round(mean + Math.sqrt(mean)*MICSource.normal(sampler)));
+    }
+
+    private int langevinBinomial(int n, double p){
+        double mean = n*p;
+        if(mean < LANGEVIN_MIN_MEAN || n - mean < LANGEVIN_MIN_MEAN) return sampler.binomial(n, p);
+        return (int)Math.min(n, Math.max(0L, Math.round(mean + Math.sqrt(mean*(1. - p))*MICSource.normal(sampler))));
+    }
+
+
+    private void exactStep(){
+        //gillespie's direct method, run exactly up to time_elapsed + tau (the exponential waiting times are memoryless,
+        //so the event which would overshoot the end of the interval can just be discarded).
+        //the channels are replication, death, migration and detachment in each microhabitat, plus immigration.
+        //the microhabitat totals come from a scan over the (few) microhabitats, then the individual bacterium is picked
+        //from the propensity trees in O(log n). migration and detachment rates are the same for every bacterium in a
+        //microhabitat, so those pick a bacterium uniformly
+        double t = time_elapsed, t_end = time_elapsed + tau;
+        ensureSSATrees();
+
+        while(true){
+            int system_size = microhabitats.size();
+            if(ssa_propensities.length < 4*system_size) ssa_propensities = new double[8*system_size];
+
+            double a_total = immigration_rate;
+            for(int mh_index = 0; mh_index < system_size; mh_index++){
+                Microhabitat mh = microhabitats.get(mh_index);
+                int N = mh.getN();
+                ssa_propensities[4*mh_index] = Math.max(mh.densityFactor(), 0.)*replication_trees.get(mh_index).total();
+                ssa_propensities[4*mh_index+1] = death_trees.get(mh_index).total();
+                ssa_propensities[4*mh_index+2] = immigration_index > 0 ? N*mh.migrate_rate() : 0.;
+                ssa_propensities[4*mh_index+3] = mh_index == immigration_index ? N*deterioration_rate : 0.;
+                for(int channel = 0; channel < 4; channel++) a_total += ssa_propensities[4*mh_index+channel];
+            }
+
+            t += -Math.log(1. - sampler.nextDouble())/a_total;
+            if(t > t_end) break;
+
+            double r = sampler.nextDouble()*a_total - immigration_rate;
+            if(r < 0.){
+                immigrate(immigration_index, 1);
+                immigrations_counter++;
+                replication_trees.get(immigration_index).add(microhabitats.get(immigration_index).maxReplicationRate(microhabitats.get(immigration_index).getN()-1));
+                death_trees.get(immigration_index).add(Math.abs(microhabitats.get(immigration_index).deathRate(microhabitats.get(immigration_index).getN()-1)));
+            }else{
+                //find the channel, falling back on the last one with a non-zero propensity if round-off runs r off the end
+                int chosen = -1;
+                for(int k = 0; k < 4*system_size; k++){
+                    if(ssa_propensities[k] <= 0.) continue;
+                    chosen = k;
+                    if(r < ssa_propensities[k]) break;
+                    r -= ssa_propensities[k];
+                }
+                applySSAEvent(chosen/4, chosen%4);
+            }
+
+            //any event can have changed the population of the immigration zone, or emptied/filled it past the threshold
+            int old_size = microhabitats.size();
+            updateBiofilmSize(t);
+            if(getSystemSize() == thickness_limit) return;
+            if(microhabitats.size() > old_size) ensureSSATrees();
+        }
+
+        time_elapsed = t_end;
+    }
+
+
+    private void applySSAEvent(int mh_index, int channel){
+        Microhabitat mh = microhabitats.get(mh_index);
+        FenwickTree g_tree = replication_trees.get(mh_index), d_tree = death_trees.get(mh_index);
+
+        switch(channel){
+            case 0: { //replication, weighted by the replication rates (the density factor is common to all of them)
+                int bac_index = g_tree.find(sampler.nextDouble()*g_tree.total());
+                mh.replicateABacterium_x_N(bac_index, 1);
+                g_tree.add(g_tree.getWeight(bac_index));
+                d_tree.add(d_tree.getWeight(bac_index));
+                replications_counter++;
+                break;
+            }
+            case 1: { //death, weighted by the death rates
+                int bac_index = d_tree.find(sampler.nextDouble()*d_tree.total());
+                removeSSABacterium(mh_index, bac_index);
+                deaths_counter++;
+                break;
+            }
+            case 2: { //migration
+                int bac_index = sampler.nextInt(mh.getN());
+                double mic = mh.getMIC(bac_index);
+                removeSSABacterium(mh_index, bac_index);
+                int destination = migrationDestination(mh_index);
+                Microhabitat dest = microhabitats.get(destination);
+                dest.addABacterium(mic);
+                replication_trees.get(destination).add(dest.maxReplicationRate(dest.getN()-1));
+                death_trees.get(destination).add(Math.abs(dest.deathRate(dest.getN()-1)));
+                break;
+            }
+            default: { //detachment
+                removeSSABacterium(mh_index, sampler.nextInt(mh.getN()));
+                detachments_counter++;
+                break;
+            }
+        }
+    }
+
+
+    private void removeSSABacterium(int mh_index, int bac_index){
+        //the store and the trees both swap the last entry into the gap, so they stay in step
+        microhabitats.get(mh_index).removeABacterium(bac_index);
+        replication_trees.get(mh_index).swapRemove(bac_index);
+        death_trees.get(mh_index).swapRemove(bac_index);
+    }
+
+
+    private void ensureSSATrees(){
+        //builds the propensity trees for any microhabitats that don't have them yet (i.e. on the first step, and when
+        //the biofilm grows). from then on every change to the populations goes through the SSA and updates the trees
+        while(replication_trees.size() < microhabitats.size()){
+            Microhabitat mh = microhabitats.get(replication_trees.size());
+            FenwickTree g_tree = new FenwickTree(2*K), d_tree = new FenwickTree(2*K);
+            for(int bac_index = 0; bac_index < mh.getN(); bac_index++){
+                g_tree.add(mh.maxReplicationRate(bac_index));
+                d_tree.add(Math.abs(mh.deathRate(bac_index)));
+            }
+            replication_trees.add(g_tree);
+            death_trees.add(d_tree);
+        }
+    }
+
+
+    void writeSnapshot(DataOutputStream out) throws IOException{
+        //the full state of the system between performAction calls: parameters, rng states, clock, counters and every
+        //microhabitat's MICs. LOCAL_TAU clocks and inboxes are always in sync/empty between calls so aren't needed,
+        //and the EXACT_SSA propensity trees are rebuilt from the populations
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(scheme.name());
+        out.writeInt(K);
+        out.writeInt(thickness_limit);
+        double[] params = {alpha, c_max, scale, sigma, deterioration_rate, biofilm_threshold, immigration_rate, migration_rate, tau, delta_x, hybrid_threshold};
+        out.writeInt(params.length);
+        for(double p : params) out.writeDouble(p);
+
+        out.writeLong(replicate_seed);
+        out.writeLong(sampler.getState());
+        out.writeDouble(time_elapsed);
+        out.writeDouble(exit_time);
+        out.writeInt(immigration_index);
+        int[] counters = {detachments_counter, deaths_counter, replications_counter, immigrations_counter, tau_halves_counter};
+        for(int c : counters) out.writeInt(c);
+
+        out.writeInt(microhabitats.size());
+        for(Microhabitat mh : microhabitats) mh.writeState(out);
+    }
+
+
+    static BioSystem readSnapshot(DataInputStream in) throws IOException{
+        int version = in.readInt();
+        if(version != SNAPSHOT_VERSION && version != 1) throw new IOException("unsupported snapshot version "+version);
+
+        BioSystem bs = new BioSystem();
+        bs.scheme = UpdateScheme.valueOf(in.readUTF());
+        bs.K = in.readInt();
+        bs.thickness_limit = in.readInt();
+        double[] params = new double[in.readInt()];
+        for(int i = 0; i < params.length; i++) params[i] = in.readDouble();
+        bs.alpha = params[0]; bs.c_max = params[1]; bs.scale = params[2]; bs.sigma = params[3];
+        bs.deterioration_rate = params[4]; bs.biofilm_threshold = params[5]; bs.immigration_rate = params[6];
+        bs.migration_rate = params[7]; bs.tau = params[8]; bs.delta_x = params[9];
+        if(params.length > 10) bs.hybrid_threshold = (int)params[10];
+
+        bs.replicate_seed = in.readLong();
+        bs.sampler = new EventSampler(in.readLong());
+        bs.time_elapsed = in.readDouble();
+        bs.exit_time = in.readDouble();
+        bs.immigration_index = in.readInt();
+        bs.detachments_counter = in.readInt();
+        bs.deaths_counter = in.readInt();
+        bs.replications_counter = in.readInt();
+        bs.immigrations_counter = in.readInt();
+        bs.tau_halves_counter = in.readInt();
+
+        int system_size = in.readInt();
+        bs.microhabitats = new ArrayList<>();
+        for(int i = 0; i < system_size; i++){
+            Microhabitat mh = bs.newMicrohabitat(i);
+            mh.readState(in, version >= 2);
+            bs.microhabitats.add(mh);
+        }
+        return bs;
+    }
+
+
     public static void varyingDeteriorationAndThreshold(double tau_val){
+        varyingDeteriorationAndThreshold(tau_val, UpdateScheme.TAU_LEAP, 120);
+    }
+
+
+    public static void varyingDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K){
+        //picks up the seed of an interrupted run of this sweep if there is one, otherwise uses a random one
+        varyingDeteriorationAndThreshold(tau_val, scheme, K, null);
+    }
+
+
+    public static void varyingDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K, Long requested_seed){
+        varyingDeteriorationAndThreshold(tau_val, scheme, K, requested_seed, StoppingRule.fixed(15));
+    }
+
+
+    public static void varyingDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K, Long requested_seed, StoppingRule rule){
         long startTime = System.currentTimeMillis();
         //this method varies the deterioration rate and the threshold biofilm density, returns the thickness reached and the event counters
-        int n_reps = 15; //the number of times each simulation is repeated for
-        int n_measurements = 20; //the number of measurements taken for deterioration and rho
-
-        double K_min = 0.45, K_max = 0.95;
-        double K_increment = (K_max - K_min)/(double)n_measurements;
-        double det_min = 0.006, det_max = 0.06;
-        double det_increment = (det_max - det_min)/(double)n_measurements;
-        double duration = 240.; //10 days
-        String filename = String.format("varying_detRate-(%.4f-%.4f)_and_thresholdK-(%.4f-%.4f)-tau=%.3f-BUGFIXED", det_min, det_max, K_min, K_max, tau_val);
-        String[] headers = new String[]{"tau", "sim_time", "sim_time_stDev","exit_time", "exit_time_stDev", "K*", "det_rate", "thickness", "thick_stDev", "n_deaths", "n_detachments", "n_immigrations", "n_replications", "n_tau_halves"};
-        ArrayList<Databox> Databoxes = new ArrayList<>();
-
-        for(double thresh_K = K_min; thresh_K <= K_max; thresh_K+=K_increment){
-            for(double det_r = det_min; det_r <= det_max; det_r+=det_increment){
-                Databox db = BioSystem.varyingDeteriorationAndThreshold_subroutine(n_reps, duration, thresh_K, det_r, tau_val);
-                Databoxes.add(db);
-            }
+        //every random stream is derived from master_seed, which goes in the filename so any replicate can be replayed.
+        //progress is checkpointed under checkpoints/, so if the run dies it can be restarted and will carry on.
+        //rule sets the number of times each simulation is repeated for (15 by default), the n_reps column has the number used
+
+        double duration = DET_SWEEP_DURATION;
+        String filename = deteriorationFilename("varying", "-BUGFIXED", tau_val, scheme, K, rule);
+        SweepCheckpoint checkpoint = new SweepCheckpoint(new File("checkpoints", filename), filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        String[] headers = SWEEP_HEADERS;
+        ArrayList<double[]> cells = deteriorationSweepCells();
+
+        //every replicate of every cell goes onto the pool as its own task, and each cell's written out as soon as it's done
+        SweepExecutor executor = new SweepExecutor();
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, headers, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR);
+            TrajectoryRecorder recorder = new TrajectoryRecorder("trajectories", filename, checkpoint.isResumed())){
+            executor.runResumable(cells.size(), rule, (cell, rep) ->
+                    BioSystem.varyingDeteriorationAndThreshold_subsubroutine(rep, duration, cells.get(cell)[0], cells.get(cell)[1], tau_val, scheme, K,
+                            RandomStreams.replicateSeed(master_seed, cell, rep), checkpoint, cell, recorder), checkpoint, writer);
+        }finally{
+            executor.shutdown();
         }
+        checkpoint.markComplete();
 
 
-        Toolbox.writeDataboxArraylistToFile("diagnostics", filename, headers, Databoxes);
+        long finishTime = System.currentTimeMillis();
+        String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
+        System.out.println("results written to file");
+        System.out.println("Time taken: "+diff);
+    }
+
 
 
+    private static ArrayList<double[]> deteriorationSweepCells(){
+        //the (K*, det_rate) of each grid cell, in the order they're written to file.
+        //the values come from their index, adding the increment up drifted enough to lose the last row and column
+        double K_increment = (DET_SWEEP_K_MAX - DET_SWEEP_K_MIN)/(double)DET_SWEEP_N_MEASUREMENTS;
+        double det_increment = (DET_SWEEP_DET_MAX - DET_SWEEP_DET_MIN)/(double)DET_SWEEP_N_MEASUREMENTS;
+        ArrayList<double[]> cells = new ArrayList<>();
+
+        for(int k = 0; k <= DET_SWEEP_N_MEASUREMENTS; k++){
+            for(int d = 0; d <= DET_SWEEP_N_MEASUREMENTS; d++){
+                cells.add(new double[]{DET_SWEEP_K_MIN + k*K_increment, DET_SWEEP_DET_MIN + d*det_increment});
+            }
+        }
+        return cells;
+    }
+
+
+    public static void ensembleDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K, Long requested_seed, StoppingRule rule){
+        long startTime = System.currentTimeMillis();
+        //varyingDeteriorationAndThreshold, with each cell's replicates run together in lock-step by an EnsembleEngine.
+        //the results and checkpoints are the same as the per-replicate sweep's (so either can resume the other), but
+        //there are no trajectories or mid-replicate snapshots. only for the tau-leaping schemes
+        String filename = deteriorationFilename("varying", "-BUGFIXED", tau_val, scheme, K, rule);
+        SweepCheckpoint checkpoint = new SweepCheckpoint(new File("checkpoints", filename), filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        ArrayList<double[]> cells = deteriorationSweepCells();
+
+        SweepExecutor executor = new SweepExecutor();
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, SWEEP_HEADERS, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR)){
+            executor.runBatchedResumable(cells.size(), rule, (cell, reps) -> {
+                long[] seeds = new long[reps.length];
+                for(int k = 0; k < reps.length; k++) seeds[k] = RandomStreams.replicateSeed(master_seed, cell, reps[k]);
+                return new EnsembleEngine(cells.get(cell)[1], cells.get(cell)[0], tau_val, scheme, K, seeds).run(DET_SWEEP_DURATION);
+            }, checkpoint, writer);
+        }finally{
+            executor.shutdown();
+        }
+        checkpoint.markComplete();
+
         long finishTime = System.currentTimeMillis();
         String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
         System.out.println("results written to file");
@@ -342,40 +1108,159 @@ class BioSystem {
     }
 
 
+    public static void distributedDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K, Long requested_seed, StoppingRule rule, int port){
+        long startTime = System.currentTimeMillis();
+        //varyingDeteriorationAndThreshold, but with the replicates run by SweepWorkers that connect to port (see
+        //SweepCoordinator). the output and checkpoints are the same as the local sweep's, so a sweep can be started
+        //locally and finished on workers or the other way round
+        String filename = deteriorationFilename("varying", "-BUGFIXED", tau_val, scheme, K, rule);
+        SweepCheckpoint checkpoint = new SweepCheckpoint(new File("checkpoints", filename), filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        int n_cells = deteriorationSweepCells().size();
+
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, SWEEP_HEADERS, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR);
+            SweepCoordinator coordinator = new SweepCoordinator(port, SweepJob.deterioration(tau_val, scheme, K, master_seed))){
+            ArrayList<Integer> remaining = new ArrayList<>();
+            for(int cell = 0; cell < n_cells; cell++){
+                if(checkpoint.isCellComplete(cell)) writer.cellCompleted(cell, checkpoint.getCompletedCell(cell));
+                else remaining.add(cell);
+            }
+            int[] cell_ids = remaining.stream().mapToInt(Integer::intValue).toArray();
+            coordinator.run(cell_ids, rule, checkpoint, (unit, averaged) -> {
+                checkpoint.recordCompletedCell(cell_ids[unit], averaged, averaged.getN_replicates());
+                writer.cellCompleted(cell_ids[unit], averaged);
+            });
+        }
+        checkpoint.markComplete();
 
-    public static Databox varyingDeteriorationAndThreshold_subroutine(int n_reps, double duration, double thresh_K, double det_r, double tau_val){
+        long finishTime = System.currentTimeMillis();
+        String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
+        System.out.println("results written to file");
+        System.out.println("Time taken: "+diff);
+    }
 
-        Databox[] databoxes = new Databox[n_reps];
 
-        IntStream.range(0, n_reps).parallel().forEach(i -> databoxes[i] = BioSystem.varyingDeteriorationAndThreshold_subsubroutine(i, duration, thresh_K, det_r, tau_val));
+    private static String deteriorationFilename(String sweep, String variant, double tau_val, UpdateScheme scheme, int K, StoppingRule rule){
+        //the deterioration sweeps' output and checkpoint name, less the seed. variant goes after tau
+        String filename = String.format("%s_detRate-(%.4f-%.4f)_and_thresholdK-(%.4f-%.4f)-tau=%.3f%s",
+                sweep, DET_SWEEP_DET_MIN, DET_SWEEP_DET_MAX, DET_SWEEP_K_MIN, DET_SWEEP_K_MAX, tau_val, variant);
+        if(scheme != UpdateScheme.TAU_LEAP || K != 120) filename += String.format("-%s-K=%d", scheme, K);
+        return filename + rule.label();
+    }
+
 
-        return Databox.averagedMeasurementsAndStDev(databoxes);
+    public static void refinedDeteriorationAndThreshold(double tau_val, UpdateScheme scheme, int K, Long requested_seed, StoppingRule rule,
+                                                        int n_coarse, int max_levels, int max_cells){
+        long startTime = System.currentTimeMillis();
+        //the deterioration sweep over the same (K*, det_rate) ranges, but starting from an n_coarse x n_coarse grid and
+        //refining (up to max_levels times, and max_cells cells in all) only where neighbouring cells' thicknesses
+        //jump by at least half the thickness limit, i.e. around the growth/no-growth boundary. see GridRefinement.
+        //each level's cells are written out as they complete, so the file's in level order rather than grid order.
+        //the replicate seeds come from the cells' indices in the finest grid, so they don't depend on the refinement
+        double duration = DET_SWEEP_DURATION;
+        String filename = deteriorationFilename("refined", String.format("-coarse=%d-levels=%d-max=%d", n_coarse, max_levels, max_cells), tau_val, scheme, K, rule);
+        File checkpoint_directory = new File("checkpoints", filename);
+        SweepCheckpoint sweep_checkpoint = new SweepCheckpoint(checkpoint_directory, filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = sweep_checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        String[] headers = SWEEP_HEADERS;
+
+        GridRefinement grid = new GridRefinement(n_coarse, max_levels, DET_SWEEP_K_MIN, DET_SWEEP_K_MAX, DET_SWEEP_DET_MIN, DET_SWEEP_DET_MAX);
+        double jump = 0.5*THICKNESS_LIMIT;
+
+        SweepExecutor executor = new SweepExecutor();
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, headers, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR)){
+            int[] points = grid.coarsePoints();
+            for(int level = 0; points.length > 0; level++){
+                int[] level_points = points;
+                int n_written = grid.getN_points();
+                //each level has its own checkpoint (under the sweep's), the cells of a level are the same on a rerun
+                SweepCheckpoint checkpoint = new SweepCheckpoint(new File(checkpoint_directory, "level-"+level), filename, master_seed, master_seed);
+                Databox[] level_results = executor.runResumable(level_points.length, rule, (cell, rep) ->
+                        BioSystem.varyingDeteriorationAndThreshold_subsubroutine(rep, duration, grid.x(level_points[cell]), grid.y(level_points[cell]), tau_val, scheme, K,
+                                RandomStreams.replicateSeed(master_seed, level_points[cell], rep), checkpoint, cell, null),
+                        checkpoint, (cell, averaged) -> writer.cellCompleted(n_written + cell, averaged));
+
+                for(int c = 0; c < level_points.length; c++) grid.setOutcome(level_points[c], level_results[c].getThickness());
+                System.out.println("level "+level+": "+level_points.length+" cells, "+grid.getN_points()+" in all");
+                points = grid.refine(jump, max_cells);
+            }
+        }finally{
+            executor.shutdown();
+        }
+        sweep_checkpoint.markComplete();
+
+        long finishTime = System.currentTimeMillis();
+        String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
+        System.out.println("results written to file");
+        System.out.println("Time taken: "+diff);
     }
 
 
+    public static Databox replayDeteriorationReplicate(long master_seed, int cell, int rep, double tau_val, UpdateScheme scheme, int K){
+        //reruns a single replicate of a varyingDeteriorationAndThreshold sweep, bit-for-bit.
+        //cell is the row of the output file (counting from 0), master_seed is the seed in its filename
+        double[] params = deteriorationSweepCells().get(cell);
+        return varyingDeteriorationAndThreshold_subsubroutine(rep, DET_SWEEP_DURATION, params[0], params[1], tau_val, scheme, K,
+                RandomStreams.replicateSeed(master_seed, cell, rep));
+    }
 
 
-    public static Databox varyingDeteriorationAndThreshold_subsubroutine(int i, double duration, double thresh_K, double det_r, double tau_val){
-        int nMeasurements = 50;
-        double interval = duration/nMeasurements;
-        boolean alreadyRecorded = false;
+    public static Databox varyingDeteriorationAndThreshold_subsubroutine(int i, double duration, double thresh_K, double det_r, double tau_val, UpdateScheme scheme, int K, long replicate_seed){
+        return varyingDeteriorationAndThreshold_subsubroutine(i, duration, thresh_K, det_r, tau_val, scheme, K, replicate_seed, null, -1, null);
+    }
 
-        BioSystem bs = new BioSystem(det_r, thresh_K, tau_val);
-        double start_time = System.currentTimeMillis();
 
-        while(bs.time_elapsed <= (duration+0.001*interval)){
-            if((bs.getTimeElapsed()%interval >= 0. && bs.getTimeElapsed()%interval <= 0.02*interval) && !alreadyRecorded){
+    public static Databox varyingDeteriorationAndThreshold_subsubroutine(int i, double duration, double thresh_K, double det_r, double tau_val, UpdateScheme scheme, int K, long replicate_seed,
+                                                                         SweepCheckpoint checkpoint, int cell, TrajectoryRecorder recorder){
+        //if checkpoint isn't null the replicate is resumed from its last snapshot (if any), and snapshotted periodically.
+        //if recorder isn't null the trajectory is recorded to it
+        SweepCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.loadSnapshot(cell, i) : null;
+        if(snapshot != null) return observedRun(snapshot.system, snapshot.elapsed_millis, i, duration, 50, checkpoint, cell, recorder);
+        return observedRun(new BioSystem(det_r, thresh_K, tau_val, scheme, K, replicate_seed), 0., i, duration, 50, checkpoint, cell, recorder);
+    }
 
-                int total_N = bs.getTotalN();
-                System.out.println("rep : "+i+"\ttau: "+bs.tau+"\tK*: "+bs.biofilm_threshold+"\td_rate: "+bs.deterioration_rate+"\tt: "+bs.getTimeElapsed()+"\tpop size: "+total_N+"\tbf_edge: "+bs.getBiofilmEdge()+"\tsystem size: "+bs.getSystemSize()+"\tc_max: "+bs.c_max);
-                alreadyRecorded = true;
-            }
 
-            if(bs.getTimeElapsed()%interval >= 0.1*interval) alreadyRecorded = false;
+    private static Databox observedRun(BioSystem bs, double resumed_millis, int i, double duration, int nMeasurements,
+                                       SweepCheckpoint checkpoint, int cell, TrajectoryRecorder recorder){
+        //runs replicate i of cell to the end of duration (or the thickness limit), observing it nMeasurements times.
+        //resumed_millis is the wall clock time it had already run for, if it's been restored from a snapshot
+        double interval = duration/nMeasurements;
+        double start_time = System.currentTimeMillis() - resumed_millis;
+        long last_snapshot_time = System.currentTimeMillis();
+
+        //the observations are at exact multiples of interval, the step before each one is cut short to land on it.
+        //a resumed replicate carries on from the first observation it hadn't made yet
+        TrajectoryRecorder.Buffer trajectory = recorder != null ? recorder.newReplicate(cell, i, bs.thickness_limit) : null;
+        long next_observation = (long)Math.ceil(bs.getTimeElapsed()/interval);
+
+        //a replicate that throws doesn't finish its trajectory, its unwritten samples are dropped instead
+        boolean completed = false;
+        try{
+            while(bs.time_elapsed <= (duration+0.001*interval)){
+                if(bs.getTimeElapsed() >= next_observation*interval){
+                    if(trajectory != null) bs.recordObservation(trajectory);
+                    if(cell >= 0 && SimulationMetrics.on()) SimulationMetrics.replicateProgress(cell, i, bs.getTimeElapsed()/duration);
+                    next_observation++;
+                }
+
+                bs.performActionUntil(next_observation*interval);
 
-            bs.performAction();
+                if(checkpoint != null && checkpoint.snapshotDue(last_snapshot_time)){
+                    checkpoint.saveSnapshot(cell, i, bs, System.currentTimeMillis() - start_time);
+                    last_snapshot_time = System.currentTimeMillis();
+                }
+            }
+            completed = true;
+        }finally{
+            if(trajectory != null){
+                if(completed) trajectory.finish();
+                else trajectory.discard();
+            }
         }
 
+        if(cell >= 0 && SimulationMetrics.on()) SimulationMetrics.replicateProgress(cell, i, 1.);
         double finish_time = System.currentTimeMillis();
         double simulation_time = finish_time - start_time;
         double[] counters = new double[]{bs.deaths_counter, bs.detachments_counter, bs.immigrations_counter, bs.replications_counter, bs.tau_halves_counter};
@@ -389,27 +1274,46 @@ class BioSystem {
 
 
     public static void varyingTauStep(double scale, double sigma){
-        long startTime = System.currentTimeMillis();
-        //this method varies the deterioration rate and the threshold biofilm density, returns the thickness reached and the event counters
-        int n_reps = 20; //the number of times each simulation is repeated for
-        int n_measurements = 64; //the number of values used taken for tau
-        //int n_reps = 4; //the number of times each simulation is repeated for
-        //int n_measurements = 3; //the number of values used taken for tau
+        varyingTauStep(scale, sigma, UpdateScheme.TAU_LEAP);
+    }
 
-        double tau_min = 0.01, tau_max = 1.2;
-        double tau_increment = (tau_max - tau_min)/(double)n_measurements;
-        double duration = 1000.; //1000 hours
-        String filename = String.format("varying_tauStep-(%.4f-%.4f)-c=10.0", tau_min, tau_max);
-        String[] headers = new String[]{"tau", "sim_time", "sim_time_stDev", "exit_time", "exit_time_stDev", "K*", "det_rate", "thickness", "thick_stDev", "n_deaths", "n_detachments", "n_immigrations", "n_replications", "n_tau_halves"};
 
-        ArrayList<Databox> Databoxes = new ArrayList<>();
+    public static void varyingTauStep(double scale, double sigma, UpdateScheme scheme){
+        //picks up the seed of an interrupted run of this sweep if there is one, otherwise uses a random one
+        varyingTauStep(scale, sigma, scheme, null);
+    }
 
-        for(double tau = tau_min; tau <= tau_max; tau+=tau_increment){
-            Databox db = BioSystem.varyingTauSubroutine(n_reps, duration, scale, sigma, tau);
-            Databoxes.add(db);
-        }
 
-        Toolbox.writeDataboxArraylistToFile("diagnostics", filename, headers, Databoxes);
+    public static void varyingTauStep(double scale, double sigma, UpdateScheme scheme, Long requested_seed){
+        varyingTauStep(scale, sigma, scheme, requested_seed, StoppingRule.fixed(20));
+    }
+
+
+    public static void varyingTauStep(double scale, double sigma, UpdateScheme scheme, Long requested_seed, StoppingRule rule){
+        //running this with BINOMIAL_LEAP and with TAU_LEAP gives the accuracy of the capped leaping against the
+        //tau-halving scheme, as tau increases
+        long startTime = System.currentTimeMillis();
+        //this method varies the deterioration rate and the threshold biofilm density, returns the thickness reached and the event counters
+        //rule sets the number of times each simulation is repeated for (20 by default), the n_reps column has the number used
+
+        double duration = TAU_SWEEP_DURATION;
+        String filename = tauStepFilename(scheme, rule);
+        SweepCheckpoint checkpoint = new SweepCheckpoint(new File("checkpoints", filename), filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        String[] headers = SWEEP_HEADERS;
+
+        ArrayList<Double> taus = tauSweepValues();
+
+        SweepExecutor executor = new SweepExecutor();
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, headers, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR);
+            TrajectoryRecorder recorder = new TrajectoryRecorder("trajectories", filename, checkpoint.isResumed())){
+            executor.runResumable(taus.size(), rule, (cell, rep) ->
+                    BioSystem.varyingTauSubsubroutine(rep, duration, scale, sigma, taus.get(cell), scheme, RandomStreams.replicateSeed(master_seed, cell, rep), checkpoint, cell, recorder), checkpoint, writer);
+        }finally{
+            executor.shutdown();
+        }
+        checkpoint.markComplete();
 
 
         long finishTime = System.currentTimeMillis();
@@ -419,54 +1323,139 @@ class BioSystem {
     }
 
 
-    public static Databox varyingTauSubroutine(int n_reps, double duration, double scale, double sigma, double tau){
-
-        Databox[] databoxes = new Databox[n_reps];
-
-        IntStream.range(0, n_reps).parallel().forEach(i -> databoxes[i] = BioSystem.varyingTauSubsubroutine(i, duration, scale, sigma, tau));
+    public static void distributedTauStep(double scale, double sigma, UpdateScheme scheme, Long requested_seed, StoppingRule rule, int port){
+        long startTime = System.currentTimeMillis();
+        //varyingTauStep, but with the replicates run by SweepWorkers that connect to port (see SweepCoordinator), as
+        //distributedDeteriorationAndThreshold is to varyingDeteriorationAndThreshold
+        String filename = tauStepFilename(scheme, rule);
+        SweepCheckpoint checkpoint = new SweepCheckpoint(new File("checkpoints", filename), filename, requested_seed, ThreadLocalRandom.current().nextLong());
+        long master_seed = checkpoint.getMaster_seed();
+        filename += "-seed="+master_seed;
+        int n_cells = tauSweepValues().size();
+
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, SWEEP_HEADERS, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR);
+            SweepCoordinator coordinator = new SweepCoordinator(port, SweepJob.tauStep(scale, sigma, scheme, master_seed))){
+            ArrayList<Integer> remaining = new ArrayList<>();
+            for(int cell = 0; cell < n_cells; cell++){
+                if(checkpoint.isCellComplete(cell)) writer.cellCompleted(cell, checkpoint.getCompletedCell(cell));
+                else remaining.add(cell);
+            }
+            int[] cell_ids = remaining.stream().mapToInt(Integer::intValue).toArray();
+            coordinator.run(cell_ids, rule, checkpoint, (unit, averaged) -> {
+                checkpoint.recordCompletedCell(cell_ids[unit], averaged, averaged.getN_replicates());
+                writer.cellCompleted(cell_ids[unit], averaged);
+            });
+        }
+        checkpoint.markComplete();
 
-        return Databox.averagedMeasurementsAndStDev(databoxes);
+        long finishTime = System.currentTimeMillis();
+        String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
+        System.out.println("results written to file");
+        System.out.println("Time taken: "+diff);
     }
 
 
-    public static Databox varyingTauSubsubroutine(int i, double duration, double scale, double sigma, double tau){
+    private static String tauStepFilename(UpdateScheme scheme, StoppingRule rule){
+        //the tau step sweeps' output and checkpoint name, less the seed
+        String filename = String.format("varying_tauStep-(%.4f-%.4f)-c=10.0", TAU_SWEEP_TAU_MIN, TAU_SWEEP_TAU_MAX);
+        if(scheme != UpdateScheme.TAU_LEAP) filename += "-"+scheme;
+        return filename + rule.label();
+    }
 
-        double c_max = 10.;
-        double alpha = 0.01;
 
-        int nMeasurements = 10;
-        double interval = duration/nMeasurements;
-        boolean alreadyRecorded = false;
+    private static ArrayList<Double> tauSweepValues(){
+        double tau_increment = (TAU_SWEEP_TAU_MAX - TAU_SWEEP_TAU_MIN)/(double)TAU_SWEEP_N_MEASUREMENTS;
+        ArrayList<Double> taus = new ArrayList<>();
 
-        BioSystem bs = new BioSystem(alpha, c_max, scale, sigma, tau);
+        for(int t = 0; t <= TAU_SWEEP_N_MEASUREMENTS; t++){
+            taus.add(TAU_SWEEP_TAU_MIN + t*tau_increment);
+        }
+        return taus;
+    }
 
-        double start_time = System.currentTimeMillis();
 
-        while(bs.time_elapsed <= (duration+0.001*interval)){
-            if((bs.getTimeElapsed()%interval <= 0.02*interval) && !alreadyRecorded){
+    public static Databox replayTauReplicate(long master_seed, int cell, int rep, double scale, double sigma, UpdateScheme scheme){
+        //reruns a single replicate of a varyingTauStep sweep, bit-for-bit
+        return varyingTauSubsubroutine(rep, TAU_SWEEP_DURATION, scale, sigma, tauSweepValues().get(cell), scheme, RandomStreams.replicateSeed(master_seed, cell, rep));
+    }
 
-                int total_N = bs.getTotalN();
-                System.out.println("rep : "+i+"\ttau: "+bs.tau+"\ttau_1/2s: "+bs.tau_halves_counter+"\tK*: "+bs.biofilm_threshold+"\td_rate: "+bs.deterioration_rate+"\tt: "+bs.getTimeElapsed()+"\tpop size: "+total_N+"\tbf_edge: "+bs.getBiofilmEdge()+"\tsystem size: "+bs.getSystemSize()+"\tc_max: "+bs.c_max);
-                alreadyRecorded = true;
-            }
 
-            if(bs.getTimeElapsed()%interval >= 0.1*interval) alreadyRecorded = false;
+    public static Databox varyingTauSubsubroutine(int i, double duration, double scale, double sigma, double tau, UpdateScheme scheme, long replicate_seed){
+        return varyingTauSubsubroutine(i, duration, scale, sigma, tau, scheme, replicate_seed, null, -1, null);
+    }
 
-            bs.performAction();
-        }
 
-        double finish_time = System.currentTimeMillis();
-        double simulation_time = finish_time - start_time;
+    public static Databox varyingTauSubsubroutine(int i, double duration, double scale, double sigma, double tau, UpdateScheme scheme, long replicate_seed,
+                                                  SweepCheckpoint checkpoint, int cell, TrajectoryRecorder recorder){
 
-        double[] counters = new double[]{bs.deaths_counter, bs.detachments_counter, bs.immigrations_counter, bs.replications_counter, bs.tau_halves_counter};
+        double c_max = 10.;
+        double alpha = 0.01;
 
-        return new Databox(bs.tau, simulation_time, bs.exit_time, bs.biofilm_threshold, bs.deterioration_rate,  bs.getBiofilmThickness(), counters);
+        SweepCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.loadSnapshot(cell, i) : null;
+        if(snapshot != null) return observedRun(snapshot.system, snapshot.elapsed_millis, i, duration, 10, checkpoint, cell, recorder);
+        return observedRun(new BioSystem(alpha, c_max, scale, sigma, tau, scheme, replicate_seed), 0., i, duration, 10, checkpoint, cell, recorder);
     }
 
 
+    public static void specSweep(SweepSpec spec, int shard, int n_shards){
+        long startTime = System.currentTimeMillis();
+        //runs the sweep a SweepSpec describes, keeping every replicate in the ResultCache under cache/, so a replicate
+        //that's been run before (by any spec with the same cell, on this engine) is read back instead of rerun.
+        //shard (counting from 1) and n_shards split the cells between machines: a cell goes to the shard its key falls
+        //in, so the same cell always lands on the same machine, wherever it is in the grid. each shard writes its own
+        //file, and once the shards' caches are copied together an unsharded run puts the whole sweep in one file
+        //without running anything. there are no mid-replicate snapshots, an interrupted sweep reruns the replicates
+        //that hadn't finished. <filename>-cells.txt has each row's key and full parameter set
+        if(n_shards < 1 || shard < 1 || shard > n_shards) throw new IllegalArgumentException("shard "+shard+"/"+n_shards+" doesn't exist, shards go from 1/n to n/n");
+        ArrayList<SweepSpec.Cell> cells = new ArrayList<>();
+        for(SweepSpec.Cell cell : spec.cells()){
+            if(Long.remainderUnsigned(cell.seedKey(), n_shards) == shard - 1) cells.add(cell);
+        }
+        String filename = spec.label();
+        if(n_shards > 1) filename += "-shard="+shard+"of"+n_shards;
+        writeCellLegend(new File("diagnostics", filename+"-cells.txt"), cells);
+        ResultCache cache = new ResultCache(new File("cache"));
+
+        SweepExecutor executor = new SweepExecutor();
+        try(ResultWriter writer = new ResultWriter("diagnostics", filename, SWEEP_HEADERS, ResultWriter.Format.TEXT, ResultWriter.Format.COLUMNAR)){
+            executor.run(cells.size(), spec.rule, (k, rep) -> {
+                SweepSpec.Cell cell = cells.get(k);
+                Databox cached = cache.get(cell, rep);
+                if(cached != null) return cached;
+                Databox db = specReplicate(cell, rep, k);
+                cache.put(cell, rep, db);
+                return db;
+            }, writer);
+        }finally{
+            executor.shutdown();
+        }
+
+        long finishTime = System.currentTimeMillis();
+        String diff = Toolbox.millisToShortDHMS(finishTime - startTime);
+        System.out.println(cells.size()+" cells, "+cache.getHits()+" replicates from the cache and "+cache.getMisses()+" run");
+        System.out.println("results written to file");
+        System.out.println("Time taken: "+diff);
+    }
 
 
+    static Databox specReplicate(SweepSpec.Cell cell, int rep, int row){
+        //replicate rep of a spec sweep cell, bit-for-bit the same whichever sweep, shard or machine runs it.
+        //row is only used for the metrics
+        long replicate_seed = RandomStreams.keyedReplicateSeed(cell.master_seed, cell.seedKey(), rep);
+        return observedRun(new BioSystem(cell, replicate_seed), 0., rep, cell.duration, cell.observations, null, row, null);
+    }
 
 
+    private static void writeCellLegend(File file, ArrayList<SweepSpec.Cell> cells){
+        file.getParentFile().mkdirs();
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))){
+            for(int row = 0; row < cells.size(); row++){
+                bw.write(row+" "+cells.get(row).key+" "+cells.get(row).description());
+                bw.newLine();
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
 
 }
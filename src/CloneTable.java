@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+class CloneTable {
+    //population of a microhabitat held as (MIC, count) clone classes rather than one entry per bacterium.
+    //replication copies the parent's MIC exactly, so most of a microhabitat is made up of a handful of MICs.
+    //each class also carries its cached rates (see MICStore)
+
+    private double[] mics;
+    private double[] g_max;
+    private double[] d_rates;
+    private int[] counts;
+    private int n_classes;
+    private int total;
+
+
+    CloneTable(int initial_capacity){
+        int capacity = Math.max(initial_capacity, 4);
+        this.mics = new double[capacity];
+        this.g_max = new double[capacity];
+        this.d_rates = new double[capacity];
+        this.counts = new int[capacity];
+        this.n_classes = 0;
+        this.total = 0;
+    }
+
+
+    int getN_classes(){return n_classes;}
+    int getTotal(){return total;}
+    double getMIC(int class_index){return mics[class_index];}
+    int getCount(int class_index){return counts[class_index];}
+    double getMaxReplicationRate(int class_index){return g_max[class_index];}
+    double getDeathRate(int class_index){return d_rates[class_index];}
+
+
+    void setCount(int class_index, int count){
+        total += count - counts[class_index];
+        counts[class_index] = count;
+    }
+
+
+    void add(double mic, double max_g_rate, double d_rate, int count){
+        //adds to an existing class if there's one with this exact MIC, otherwise starts a new class
+        if(count <= 0) return;
+        for(int i = 0; i < n_classes; i++){
+            if(mics[i] == mic){
+                counts[i] += count;
+                total += count;
+                return;
+            }
+        }
+        if(n_classes == mics.length){
+            mics = Arrays.copyOf(mics, 2*n_classes);
+            g_max = Arrays.copyOf(g_max, 2*n_classes);
+            d_rates = Arrays.copyOf(d_rates, 2*n_classes);
+            counts = Arrays.copyOf(counts, 2*n_classes);
+        }
+        mics[n_classes] = mic;
+        g_max[n_classes] = max_g_rate;
+        d_rates[n_classes] = d_rate;
+        counts[n_classes] = count;
+        n_classes++;
+        total += count;
+    }
+
+
+    void removeEmptyClasses(){
+        int write = 0;
+        for(int read = 0; read < n_classes; read++){
+            if(counts[read] == 0) continue;
+            mics[write] = mics[read];
+            g_max[write] = g_max[read];
+            d_rates[write] = d_rates[read];
+            counts[write] = counts[read];
+            write++;
+        }
+        n_classes = write;
+    }
+
+}
@@ -1,10 +1,14 @@
-import java.lang.reflect.Array;
+import java.util.Arrays;
 
 public class Databox {
 
     public double tau, simulation_time, simulation_time_stDev, exit_time, exit_time_stDev, det_rate, threshold_K;
     public double thickness, thickness_stDev;
-    public double[] event_counters;
+    public double[] event_counters, event_counters_stDev;
+    public double[] exit_time_quantiles; //at EXIT_TIME_QUANTILES, across the replicates
+    public int n_replicates; //how many replicates were averaged, 1 for a single replicate
+
+    public static final double[] EXIT_TIME_QUANTILES = {0.1, 0.5, 0.9};
 
 
     public Databox(double tau, double simulation_time, double exit_time, double threshold_K, double det_rate, double thickness, double[] event_counters){
@@ -19,6 +23,10 @@ public class Databox {
         this.thickness = thickness;
         this.thickness_stDev = 0.;
         this.event_counters = event_counters;
+        this.event_counters_stDev = new double[event_counters.length];
+        this.exit_time_quantiles = new double[EXIT_TIME_QUANTILES.length];
+        Arrays.fill(exit_time_quantiles, exit_time);
+        this.n_replicates = 1;
     }
 
 
@@ -35,18 +43,27 @@ public class Databox {
     public double getThickness_stDev(){ return thickness_stDev; }
     public void setThickness_stDev(double thickness_stDev){this.thickness_stDev = thickness_stDev;}
     public double[] getEvent_counters(){ return event_counters; }
+    public double[] getEvent_counters_stDev(){ return event_counters_stDev; }
+    public void setEvent_counters_stDev(double[] event_counters_stDev){this.event_counters_stDev = event_counters_stDev;}
+    public double[] getExit_time_quantiles(){ return exit_time_quantiles; }
+    public int getN_replicates(){ return n_replicates; }
+    public void setN_replicates(int n_replicates){this.n_replicates = n_replicates;}
 
 
     public double[] allDataInAnArray(){
         //The order of this array correlates with the order of the counter labels. make sure they match.
+        //the counter st devs, exit time quantiles and replicate count go on the end, so the older columns keep their positions
         double[] non_counters;
 
         non_counters = new double[]{tau, simulation_time, simulation_time_stDev, exit_time, exit_time_stDev, threshold_K, det_rate, thickness, thickness_stDev};
 
-        double[] all_vals = new double[non_counters.length + event_counters.length];
+        double[] all_vals = new double[non_counters.length + 2*event_counters.length + exit_time_quantiles.length + 1];
 
         System.arraycopy(non_counters, 0, all_vals, 0, non_counters.length);
         System.arraycopy(event_counters, 0, all_vals, non_counters.length, event_counters.length);
+        System.arraycopy(event_counters_stDev, 0, all_vals, non_counters.length + event_counters.length, event_counters.length);
+        System.arraycopy(exit_time_quantiles, 0, all_vals, non_counters.length + 2*event_counters.length, exit_time_quantiles.length);
+        all_vals[all_vals.length-1] = n_replicates;
 
         return all_vals;
     }
@@ -54,6 +71,28 @@ public class Databox {
 
 
 
+    public static Databox fromArray(double[] all_vals){
+        //the inverse of allDataInAnArray
+        int n_non_counters = 9;
+        int n_counters = (all_vals.length - n_non_counters - EXIT_TIME_QUANTILES.length - 1)/2;
+        double[] counters = new double[n_counters];
+        double[] counters_stDev = new double[n_counters];
+        System.arraycopy(all_vals, n_non_counters, counters, 0, n_counters);
+        System.arraycopy(all_vals, n_non_counters + n_counters, counters_stDev, 0, n_counters);
+
+        Databox db = new Databox(all_vals[0], all_vals[1], all_vals[3], all_vals[5], all_vals[6], all_vals[7], counters);
+        db.setSimulation_time_stDev(all_vals[2]);
+        db.setExit_time_stDev(all_vals[4]);
+        db.setThickness_stDev(all_vals[8]);
+        db.setEvent_counters_stDev(counters_stDev);
+        System.arraycopy(all_vals, n_non_counters + 2*n_counters, db.exit_time_quantiles, 0, EXIT_TIME_QUANTILES.length);
+        db.setN_replicates((int)all_vals[all_vals.length-1]);
+        return db;
+    }
+
+
+
+
     public static Databox add(Databox d1, Databox d2){
         double[] added_counters = new double[d1.event_counters.length];
         for(int i = 0; i < d1.event_counters.length; i++){
@@ -80,32 +119,11 @@ public class Databox {
 
 
     public static Databox averagedMeasurementsAndStDev(Databox[] databoxes){
-        //averages the counters in an array of databoxes and returns the st dev of the recorded thicknesses
-        Databox summedDB = databoxes[0];
-        for(int i = 1; i < databoxes.length; i++){
-            summedDB = Databox.add(summedDB, databoxes[i]);
-        }
-        Databox averagedDB = Databox.divideBy(summedDB, databoxes.length);
-
-        double sumSq_thick = 0.;
-        double avgThick = averagedDB.thickness;
-
-        double sumSq_simTime = 0.;
-        double avgSimTime = averagedDB.simulation_time;
-
-        double sumSq_exitT = 0.;
-        double avgExitT = averagedDB.exit_time;
-        for(int i = 0; i < databoxes.length; i++){
-            sumSq_thick += (databoxes[i].thickness - avgThick)*(databoxes[i].thickness - avgThick);
-            sumSq_simTime += (databoxes[i].simulation_time - avgSimTime)*(databoxes[i].simulation_time - avgSimTime);
-            sumSq_exitT += (databoxes[i].exit_time - avgExitT)*(databoxes[i].exit_time - avgExitT);
-        }
-        averagedDB.setThickness_stDev(Math.sqrt(sumSq_thick/(databoxes.length - 1.)));
-        averagedDB.setSimulation_time_stDev(Math.sqrt(sumSq_simTime/(databoxes.length - 1.)));
-        averagedDB.setExit_time_stDev(Math.sqrt(sumSq_exitT/(databoxes.length - 1.)));
-
-
-        return averagedDB;
+        //averages every field of an array of databoxes, with the st dev of each and the quantiles of the exit time.
+        //see DataboxAccumulator for doing this a replicate at a time
+        DataboxAccumulator accumulator = new DataboxAccumulator(databoxes[0].event_counters.length);
+        for(Databox db : databoxes) accumulator.add(db);
+        return accumulator.toDatabox();
     }
 
 
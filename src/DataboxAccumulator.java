@@ -0,0 +1,97 @@
+class DataboxAccumulator {
+    //folds replicate databoxes in one at a time: welford's running mean and sum of squared deviations, plus a quantile
+    //sketch, for every field. accumulators merge with chan et al.'s pairwise update, so partial results from different
+    //threads (or machines) combine into the same statistics as if every replicate had been added to one accumulator.
+    //
+    //the fields are the per-replicate values in the order the Databox constructor takes them:
+    //tau, simulation_time, exit_time, threshold_K, det_rate, thickness, then the event counters
+
+    static final int TAU = 0, SIMULATION_TIME = 1, EXIT_TIME = 2, THRESHOLD_K = 3, DET_RATE = 4, THICKNESS = 5, FIRST_COUNTER = 6;
+
+    private final int n_fields;
+    private long n = 0;
+    private final double[] mean, m2;
+    private final QuantileSketch[] sketches;
+    private final double[] values; //scratch for add
+
+
+    DataboxAccumulator(int n_counters){
+        this.n_fields = FIRST_COUNTER + n_counters;
+        this.mean = new double[n_fields];
+        this.m2 = new double[n_fields];
+        this.values = new double[n_fields];
+        this.sketches = new QuantileSketch[n_fields];
+        for(int f = 0; f < n_fields; f++) sketches[f] = new QuantileSketch();
+    }
+
+
+    long getN(){return n;}
+
+
+    void add(Databox db){
+        values[TAU] = db.tau;
+        values[SIMULATION_TIME] = db.simulation_time;
+        values[EXIT_TIME] = db.exit_time;
+        values[THRESHOLD_K] = db.threshold_K;
+        values[DET_RATE] = db.det_rate;
+        values[THICKNESS] = db.thickness;
+        System.arraycopy(db.event_counters, 0, values, FIRST_COUNTER, n_fields - FIRST_COUNTER);
+
+        n++;
+        for(int f = 0; f < n_fields; f++){
+            double delta = values[f] - mean[f];
+            mean[f] += delta/n;
+            m2[f] += delta*(values[f] - mean[f]);
+            sketches[f].add(values[f]);
+        }
+    }
+
+
+    void merge(DataboxAccumulator other){
+        if(other.n_fields != n_fields) throw new IllegalArgumentException("accumulators have different numbers of counters");
+        if(other.n == 0) return;
+        long n_total = n + other.n;
+        for(int f = 0; f < n_fields; f++){
+            double delta = other.mean[f] - mean[f];
+            mean[f] += delta*other.n/n_total;
+            m2[f] += other.m2[f] + delta*delta*((double)n*other.n/n_total);
+            sketches[f].merge(other.sketches[f]);
+        }
+        n = n_total;
+    }
+
+
+    double mean(int field){return mean[field];}
+
+    double stDev(int field){
+        //sample standard deviation, NaN for fewer than 2 replicates
+        return Math.sqrt(m2[field]/(n - 1.));
+    }
+
+    double quantile(int field, double q){
+        return sketches[field].quantile(q);
+    }
+
+
+    Databox toDatabox(){
+        //the averaged databox, with the standard deviation of every field and the exit time quantiles filled in
+        double[] counters = new double[n_fields - FIRST_COUNTER];
+        double[] counters_stDev = new double[n_fields - FIRST_COUNTER];
+        for(int c = 0; c < counters.length; c++){
+            counters[c] = mean[FIRST_COUNTER + c];
+            counters_stDev[c] = stDev(FIRST_COUNTER + c);
+        }
+
+        Databox db = new Databox(mean[TAU], mean[SIMULATION_TIME], mean[EXIT_TIME], mean[THRESHOLD_K], mean[DET_RATE], mean[THICKNESS], counters);
+        db.setSimulation_time_stDev(stDev(SIMULATION_TIME));
+        db.setExit_time_stDev(stDev(EXIT_TIME));
+        db.setThickness_stDev(stDev(THICKNESS));
+        db.setEvent_counters_stDev(counters_stDev);
+        db.setN_replicates((int)n);
+        for(int q = 0; q < Databox.EXIT_TIME_QUANTILES.length; q++){
+            db.getExit_time_quantiles()[q] = quantile(EXIT_TIME, Databox.EXIT_TIME_QUANTILES[q]);
+        }
+        return db;
+    }
+
+}
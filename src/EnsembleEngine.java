@@ -0,0 +1,387 @@
+import java.util.Arrays;
+
+class EnsembleEngine {
+    //runs a batch of deterioration sweep replicates (same parameters, different seeds) in lock-step, in one
+    //struct-of-arrays layout instead of a BioSystem object graph per replicate. every replicate's bacteria live in
+    //three flat arrays (MICs and the two cached rates), cut into a fixed-stride segment per (replicate, microhabitat),
+    //and the rest of each replicate's state is one slot in a primitive array. the random streams are splitmix64, so
+    //they're stored as their long states and a single EventSampler is pointed at whichever one is drawing.
+    //each round steps every still-active replicate once. a replicate is masked out of the rounds as soon as it's hit
+    //the thickness limit or the end of the run, and nothing is allocated per step.
+    //
+    //this is the tau-leaping step (TAU_LEAP or BINOMIAL_LEAP) of BioSystem, with the observation schedule of
+    //varyingDeteriorationAndThreshold_subsubroutine, draw for draw: a replicate run here gives exactly the databox
+    //it gives run on its own, apart from the wall-clock simulation time. the deterioration sweep has no biocide, so
+    //every microhabitat has c = 0. there are no snapshots, trajectories or per-cell metrics; use the per-replicate
+    //path for those
+
+    private static final int N_MEASUREMENTS = 50; //as in varyingDeteriorationAndThreshold_subsubroutine
+
+    private final int n_reps, K, max_mh;
+    private final double deterioration_rate, biofilm_threshold, tau;
+    private final boolean capped;
+    private final MICSource mic_source = MICSource.of(BioSystem.SUSCEPTIBLE_SCALE, BioSystem.SUSCEPTIBLE_SIGMA);
+
+    //bacterium i of microhabitat m of replicate r is at (r*max_mh + m)*stride + i
+    private int stride;
+    private double[] mics, g_max, d_rates;
+    private final int[] pop; //[r*max_mh + m]
+    private final long[] mic_streams; //[r*max_mh + m]
+
+    //per replicate
+    private final long[] event_streams;
+    private final int[] system_size;
+    private final double[] time_elapsed, exit_time;
+    private final long[] next_observation;
+    private final int[] deaths, detachments, immigrations, replications, tau_halves;
+    private final double[] finish_millis;
+
+    //the indices of the replicates still running, compacted as they finish
+    private final int[] active;
+    private int n_active;
+
+    private final EventSampler sampler = new EventSampler(0L);
+    //the kinds of draw, for the exp(-mean) cache
+    private static final int DEATH = 0, REPLICATION = 1, MIGRATION = 2, DETACHMENT = 3;
+    private final double[] cached_mean = {Double.NaN, Double.NaN, Double.NaN, Double.NaN}, cached_exp = new double[4];
+
+    //scratch for one replicate's step, indexed m*stride + i
+    private int[] n_replications, n_deaths, n_migrations, n_detachments;
+    private boolean[] leaving;
+    private double[] new_mics = new double[16];
+    //each microhabitat's migrants, exchanged as in MigrationExchange
+    private final double[][] outboxes;
+    private final int[] outbox_sizes, n_left;
+
+
+    EnsembleEngine(double deterioration_rate, double biofilm_threshold, double tau, UpdateScheme scheme, int K, long[] replicate_seeds){
+        if(scheme != UpdateScheme.TAU_LEAP && scheme != UpdateScheme.BINOMIAL_LEAP){
+            throw new IllegalArgumentException("the ensemble engine only runs the tau-leaping schemes, not "+scheme);
+        }
+        this.n_reps = replicate_seeds.length;
+        this.K = K;
+        this.max_mh = BioSystem.THICKNESS_LIMIT;
+        this.deterioration_rate = deterioration_rate;
+        this.biofilm_threshold = biofilm_threshold;
+        this.tau = tau;
+        this.capped = scheme == UpdateScheme.BINOMIAL_LEAP;
+
+        this.stride = Math.max(16, 2*K);
+        this.mics = new double[n_reps*max_mh*stride];
+        this.g_max = new double[mics.length];
+        this.d_rates = new double[mics.length];
+        this.pop = new int[n_reps*max_mh];
+        this.mic_streams = new long[n_reps*max_mh];
+        allocateScratch();
+
+        this.event_streams = new long[n_reps];
+        this.system_size = new int[n_reps];
+        this.time_elapsed = new double[n_reps];
+        this.exit_time = new double[n_reps];
+        this.next_observation = new long[n_reps];
+        this.deaths = new int[n_reps];
+        this.detachments = new int[n_reps];
+        this.immigrations = new int[n_reps];
+        this.replications = new int[n_reps];
+        this.tau_halves = new int[n_reps];
+        this.finish_millis = new double[n_reps];
+        this.active = new int[n_reps];
+        this.outboxes = new double[max_mh][16];
+        this.outbox_sizes = new int[max_mh];
+        this.n_left = new int[max_mh];
+
+        for(int r = 0; r < n_reps; r++){
+            event_streams[r] = RandomStreams.streamSeed(replicate_seeds[r], RandomStreams.EVENT_STREAM);
+            for(int m = 0; m < max_mh; m++) mic_streams[r*max_mh + m] = RandomStreams.microhabitatStreamSeed(replicate_seeds[r], m);
+            //a fresh system is just the surface microhabitat with 5 bacteria in it
+            system_size[r] = 1;
+            immigrate(r, 0, 5);
+            active[n_active++] = r;
+        }
+    }
+
+
+    Databox[] run(double duration){
+        //runs every replicate to the end, returns their databoxes in seed order
+        double interval = duration/N_MEASUREMENTS;
+        double end = duration + 0.001*interval;
+        double start_time = System.currentTimeMillis();
+        boolean metrics = SimulationMetrics.on();
+
+        while(n_active > 0){
+            int n_still_active = 0;
+            for(int a = 0; a < n_active; a++){
+                int r = active[a];
+                if(time_elapsed[r] > end){
+                    finish_millis[r] = System.currentTimeMillis() - start_time;
+                    continue;
+                }
+                active[n_still_active++] = r;
+
+                if(time_elapsed[r] >= next_observation[r]*interval) next_observation[r]++;
+                double t_before = time_elapsed[r];
+                long events_before = metrics ? eventCount(r) : 0;
+                stepUntil(r, next_observation[r]*interval);
+                if(metrics) SimulationMetrics.step((exit_time[r] > 0. ? exit_time[r] : time_elapsed[r]) - t_before, eventCount(r) - events_before);
+            }
+            n_active = n_still_active;
+        }
+
+        Databox[] results = new Databox[n_reps];
+        for(int r = 0; r < n_reps; r++){
+            double[] counters = new double[]{deaths[r], detachments[r], immigrations[r], replications[r], tau_halves[r]};
+            //the biofilm is every microhabitat below the immigration zone
+            results[r] = new Databox(tau, finish_millis[r], exit_time[r], biofilm_threshold, deterioration_rate, system_size[r] - 1, counters);
+        }
+        return results;
+    }
+
+
+    private long eventCount(int r){
+        return (long)deaths[r] + detachments[r] + replications[r] + immigrations[r];
+    }
+
+
+    private void stepUntil(int r, double t_limit){
+        //BioSystem.performActionUntil
+        double step = tau;
+        if(t_limit - time_elapsed[r] < tau) step = Math.max(t_limit - time_elapsed[r], 0.);
+        if(step > 0.) tauLeapStep(r, step);
+        if(Math.abs(time_elapsed[r] - t_limit) <= 1e-9*tau) time_elapsed[r] = t_limit;
+    }
+
+
+    private int sampleAtMostOnceEvent(int kind, double mean){
+        if(capped) return sampler.bernoulli(-expCached(kind, mean)) ? 1 : 0;
+        return poisson(kind, mean);
+    }
+
+    private int poisson(int kind, double mean){
+        return sampler.poisson(mean, expCached(kind, mean));
+    }
+
+    private double expCached(int kind, double mean){
+        //exp(-mean), remembered per kind of event. the bacteria of a microhabitat mostly share their rates (with no
+        //biocide they all do), so nearly every draw reuses the last one. the draws are the same either way
+        if(mean != cached_mean[kind]){
+            cached_mean[kind] = mean;
+            cached_exp[kind] = capped && kind != REPLICATION ? Math.expm1(-mean) : Math.exp(-mean);
+        }
+        return cached_exp[kind];
+    }
+
+
+    private void tauLeapStep(int r, double tau_step){
+        //BioSystem.tauLeapStep for replicate r
+        sampler.setState(event_streams[r]);
+        int size = system_size[r];
+        int immigration_index = size - 1;
+        int base = r*max_mh;
+        int n_immigrants;
+
+        whileloop:
+        while(true){
+            double mean_deterioration = deterioration_rate*tau_step;
+            double mean_migration = BioSystem.MIGRATION_RATE*tau_step;
+            double mean_migration_edge = 0.5*BioSystem.MIGRATION_RATE*tau_step;
+
+            for(int m = 0; m < size; m++){
+                int mh_pop = pop[base + m];
+                int seg = (base + m)*stride, scratch = m*stride;
+                double density_factor = 1. - mh_pop/(double)K;
+
+                for(int i = 0; i < mh_pop; i++){
+                    int s = scratch + i;
+                    double g_rate = g_max[seg + i]*density_factor, d_rate = Math.abs(d_rates[seg + i]);
+
+                    n_deaths[s] = sampleAtMostOnceEvent(DEATH, d_rate*tau_step);
+                    n_replications[s] = g_rate > 0. && n_deaths[s] == 0 ? poisson(REPLICATION, g_rate*tau_step) : 0;
+                    n_migrations[s] = 0;
+                    n_detachments[s] = 0;
+
+                    if(n_deaths[s] > 1){
+                        tau_halves[r]++;
+                        tau_step /= 2;
+                        continue whileloop;
+                    }
+                    if(n_deaths[s] == 0){
+                        if(immigration_index > 0){
+                            n_migrations[s] = sampleAtMostOnceEvent(MIGRATION, m == 0 || m == immigration_index ? mean_migration_edge : mean_migration);
+                            if(n_migrations[s] > 1){
+                                tau_step /= 2.;
+                                continue whileloop;
+                            }
+                        }
+                        if(m == immigration_index){
+                            n_detachments[s] = sampleAtMostOnceEvent(DETACHMENT, mean_deterioration);
+                            if(n_detachments[s] > 1){
+                                tau_step /= 2.;
+                                continue whileloop;
+                            }
+                            if(n_detachments[s] > 0) n_migrations[s] = 0;
+                        }
+                    }
+                }
+            }
+            n_immigrants = sampler.poisson(BioSystem.IMMIGRATION_RATE*tau_step);
+            break whileloop;
+        }
+
+        //the events are applied as in BioSystem: flag, compact each microhabitat, exchange the migrants, then add the
+        //immigrants
+        Arrays.fill(outbox_sizes, 0, size, 0);
+        for(int m = 0; m < size; m++){
+            int original_pop = pop[base + m];
+            //room for all the offspring first, so the layout can't move under the loop
+            int n_offspring = 0;
+            for(int i = 0; i < original_pop; i++) n_offspring += n_replications[m*stride + i];
+            ensureCapacity(original_pop + n_offspring);
+            int scratch = m*stride;
+            for(int i = 0; i < original_pop; i++){
+                int s = scratch + i;
+                leaving[s] = false;
+                if(n_deaths[s] != 0){
+                    leaving[s] = true;
+                    deaths[r]++;
+                    continue;
+                }
+                addCopies(r, m, i, n_replications[s]);
+                replications[r] += n_replications[s];
+
+                if(m == immigration_index && n_detachments[s] != 0){
+                    leaving[s] = true;
+                    detachments[r]++;
+                }else if(size > 1 && n_migrations[s] != 0){
+                    leaving[s] = true;
+                    if(outbox_sizes[m] == outboxes[m].length) outboxes[m] = Arrays.copyOf(outboxes[m], 2*outbox_sizes[m]);
+                    outboxes[m][outbox_sizes[m]++] = mics[(base + m)*stride + i];
+                }
+            }
+            compact(r, m, original_pop);
+        }
+
+        //the surface only sends bacteria up, the immigration zone only down
+        for(int m = 0; m < size; m++) n_left[m] = MigrationExchange.split(outboxes[m], outbox_sizes[m], m == 0, m == immigration_index, sampler);
+        for(int d = 0; d < size; d++){
+            if(d > 0) append(r, d, outboxes[d-1], n_left[d-1], outbox_sizes[d-1]);
+            if(d + 1 < size) append(r, d, outboxes[d+1], 0, n_left[d+1]);
+        }
+        event_streams[r] = sampler.getState();
+
+        immigrate(r, immigration_index, n_immigrants);
+        immigrations[r] += n_immigrants;
+        updateBiofilmSize(r);
+        time_elapsed[r] += tau_step;
+    }
+
+
+    private void append(int r, int m, double[] new_mics, int from, int to){
+        //MICStore.addRange
+        int n = to - from;
+        if(n <= 0) return;
+        int slot = r*max_mh + m;
+        ensureCapacity(pop[slot] + n);
+        int at = slot*stride + pop[slot];
+        System.arraycopy(new_mics, from, mics, at, n);
+        RateKernel.fill(0., Microhabitat.MAX_G_RATE, Microhabitat.UNIFORM_D_RATE, mics, at, at + n, g_max, d_rates);
+        pop[slot] += n;
+    }
+
+
+    private void updateBiofilmSize(int r){
+        int immigration_index = system_size[r] - 1;
+        if(pop[r*max_mh + immigration_index]/(double)K >= biofilm_threshold) system_size[r]++;
+
+        if(system_size[r] == max_mh){
+            exit_time[r] = time_elapsed[r];
+            time_elapsed[r] = 9e9; //as in BioSystem, this puts it past the end of the run
+        }
+    }
+
+
+    private void immigrate(int r, int m, int n_immigrants){
+        //Microhabitat.addARandomBacterium_x_N, off microhabitat m's own stream
+        if(n_immigrants == 0) return;
+        if(new_mics.length < n_immigrants) new_mics = new double[Math.max(n_immigrants, 2*new_mics.length)];
+        long event_state = sampler.getState();
+        sampler.setState(mic_streams[r*max_mh + m]);
+        mic_source.fill(new_mics, 0, n_immigrants, sampler);
+        mic_streams[r*max_mh + m] = sampler.getState();
+        sampler.setState(event_state);
+
+        append(r, m, new_mics, 0, n_immigrants);
+    }
+
+
+    private void addCopies(int r, int m, int i, int n_copies){
+        //MICStore.addCopies
+        if(n_copies <= 0) return;
+        int slot = r*max_mh + m;
+        ensureCapacity(pop[slot] + n_copies);
+        int seg = slot*stride, end = seg + pop[slot];
+        Arrays.fill(mics, end, end + n_copies, mics[seg + i]);
+        Arrays.fill(g_max, end, end + n_copies, g_max[seg + i]);
+        Arrays.fill(d_rates, end, end + n_copies, d_rates[seg + i]);
+        pop[slot] += n_copies;
+    }
+
+
+    private void compact(int r, int m, int n_flaggable){
+        //MICStore.compact, with the flags in the scratch
+        int slot = r*max_mh + m;
+        int seg = slot*stride, scratch = m*stride;
+        int write = 0;
+        for(int read = 0; read < pop[slot]; read++){
+            if(read < n_flaggable && leaving[scratch + read]) continue;
+            mics[seg + write] = mics[seg + read];
+            g_max[seg + write] = g_max[seg + read];
+            d_rates[seg + write] = d_rates[seg + read];
+            write++;
+        }
+        pop[slot] = write;
+    }
+
+
+    private void ensureCapacity(int min_pop){
+        //every segment is widened together, keeping the layout uniform
+        if(min_pop <= stride) return;
+        int new_stride = Math.max(min_pop, 2*stride);
+        double[][] arrays = {mics, g_max, d_rates};
+        for(int a = 0; a < arrays.length; a++){
+            double[] widened = new double[n_reps*max_mh*new_stride];
+            for(int slot = 0; slot < n_reps*max_mh; slot++){
+                System.arraycopy(arrays[a], slot*stride, widened, slot*new_stride, pop[slot]);
+            }
+            arrays[a] = widened;
+        }
+        mics = arrays[0];
+        g_max = arrays[1];
+        d_rates = arrays[2];
+
+        //the scratch of the step in progress has to move with it
+        int[][] scratch = {n_replications, n_deaths, n_migrations, n_detachments};
+        stride = new_stride;
+        int[][] moved = new int[scratch.length][max_mh*new_stride];
+        boolean[] moved_leaving = new boolean[max_mh*new_stride];
+        int old_stride = scratch[0].length/max_mh;
+        for(int m = 0; m < max_mh; m++){
+            for(int a = 0; a < scratch.length; a++) System.arraycopy(scratch[a], m*old_stride, moved[a], m*new_stride, old_stride);
+            System.arraycopy(leaving, m*old_stride, moved_leaving, m*new_stride, old_stride);
+        }
+        n_replications = moved[0];
+        n_deaths = moved[1];
+        n_migrations = moved[2];
+        n_detachments = moved[3];
+        leaving = moved_leaving;
+    }
+
+
+    private void allocateScratch(){
+        n_replications = new int[max_mh*stride];
+        n_deaths = new int[max_mh*stride];
+        n_migrations = new int[max_mh*stride];
+        n_detachments = new int[max_mh*stride];
+        leaving = new boolean[max_mh*stride];
+    }
+
+}
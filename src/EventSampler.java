@@ -0,0 +1,189 @@
+class EventSampler {
+    //draws the poisson, bernoulli and binomial variates used in the tau-leaping step.
+    //the means change with every call (each bacterium has its own rates), so rather than building a commons-math
+    //distribution object per draw (and reseeding a Well19937c each time) everything here works off one
+    //splitmix64 generator whose whole state is a single long. nothing is allocated per draw.
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    //poisson means below this use multiplication of uniforms, above it the PTRS rejection method
+    private static final double POISSON_PTRS_CUTOFF = 10.;
+    //binomials with n*p below this use inversion, above it the BTRS rejection method
+    private static final double BINOMIAL_BTRS_CUTOFF = 10.;
+
+    private static final int LOG_FACTORIAL_TABLE_SIZE = 256;
+    private static final double[] LOG_FACTORIAL = new double[LOG_FACTORIAL_TABLE_SIZE];
+    static {
+        LOG_FACTORIAL[0] = 0.;
+        for(int i = 1; i < LOG_FACTORIAL_TABLE_SIZE; i++) LOG_FACTORIAL[i] = LOG_FACTORIAL[i-1] + Math.log(i);
+    }
+
+    private long state;
+
+
+    EventSampler(long seed){
+        this.state = seed;
+    }
+
+
+    long getState(){return state;}
+    void setState(long state){this.state = state;}
+
+
+    long nextLong(){
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    double nextDouble(){
+        //uniform on [0, 1)
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    boolean nextBoolean(){
+        return nextLong() < 0L;
+    }
+
+    int nextInt(int bound){
+        //uniform on [0, bound), using the multiply-shift reduction (bias is negligible for the bounds used here)
+        return (int)(((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+
+    double nextGaussian(){
+        //standard normal by box-muller, using only one of the pair so the state stays a single long
+        double u1 = 1. - nextDouble();
+        double u2 = nextDouble();
+        return Math.sqrt(-2.*Math.log(u1))*Math.cos(2.*Math.PI*u2);
+    }
+
+
+    boolean bernoulli(double p){
+        return nextDouble() < p;
+    }
+
+
+    int poisson(double mean){
+        if(mean <= 0.) return 0;
+        if(mean < POISSON_PTRS_CUTOFF) return poissonMultiplication(mean);
+        return poissonPTRS(mean);
+    }
+
+    int poisson(double mean, double exp_minus_mean){
+        //poisson(mean), with exp(-mean) worked out by the caller (e.g. once for many draws with the same mean).
+        //the same draw as poisson(mean) given the same state
+        if(mean <= 0.) return 0;
+        if(mean < POISSON_PTRS_CUTOFF) return poissonMultiplicationFrom(exp_minus_mean);
+        return poissonPTRS(mean);
+    }
+
+    private int poissonMultiplication(double mean){
+        //knuth's method, fine for the small means that make up nearly all of the draws
+        return poissonMultiplicationFrom(Math.exp(-mean));
+    }
+
+    private int poissonMultiplicationFrom(double limit){
+        double prod = nextDouble();
+        int k = 0;
+        while(prod > limit){
+            k++;
+            prod *= nextDouble();
+        }
+        return k;
+    }
+
+    private int poissonPTRS(double mean){
+        //hormann's transformed rejection with squeeze (1993)
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931 + 2.53*slam;
+        double a = -0.059 + 0.02483*b;
+        double invalpha = 1.1239 + 1.1328/(b - 3.4);
+        double vr = 0.9277 - 3.6224/(b - 2.);
+
+        while(true){
+            double U = nextDouble() - 0.5;
+            double V = nextDouble();
+            double us = 0.5 - Math.abs(U);
+            long k = (long)Math.floor((2.*a/us + b)*U + mean + 0.43);
+
+            if(us >= 0.07 && V <= vr) return (int)k;
+            if(k < 0 || (us < 0.013 && V > us)) continue;
+
+            if(Math.log(V) + Math.log(invalpha) - Math.log(a/(us*us) + b) <= -mean + k*loglam - logFactorial(k)){
+                return (int)k;
+            }
+        }
+    }
+
+
+    int binomial(int n, double p){
+        if(n <= 0 || p <= 0.) return 0;
+        if(p >= 1.) return n;
+        if(p > 0.5) return n - binomial(n, 1. - p);
+        if(n*p < BINOMIAL_BTRS_CUTOFF) return binomialInversion(n, p);
+        return binomialBTRS(n, p);
+    }
+
+    private int binomialInversion(int n, double p){
+        double q = 1. - p;
+        double s = p/q;
+        double a = (n + 1)*s;
+        double r = Math.pow(q, n);
+        double u = nextDouble();
+        int x = 0;
+        while(u > r){
+            u -= r;
+            x++;
+            //round-off can leave u marginally above the remaining mass, in which case start over
+            if(x > n){
+                u = nextDouble();
+                x = 0;
+                r = Math.pow(q, n);
+                continue;
+            }
+            r *= (a/x - s);
+        }
+        return x;
+    }
+
+    private int binomialBTRS(int n, double p){
+        //hormann's transformed rejection with squeeze for the binomial (1993)
+        double spq = Math.sqrt(n*p*(1. - p));
+        double b = 1.15 + 2.53*spq;
+        double a = -0.0873 + 0.0248*b + 0.01*p;
+        double c = n*p + 0.5;
+        double vr = 0.92 - 4.2/b;
+        double alpha = (2.83 + 5.1/b)*spq;
+        double lpq = Math.log(p/(1. - p));
+        long m = (long)Math.floor((n + 1)*p);
+        double h = logFactorial(m) + logFactorial(n - m);
+
+        while(true){
+            double u = nextDouble() - 0.5;
+            double v = nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long)Math.floor((2.*a/us + b)*u + c);
+
+            if(k < 0 || k > n) continue;
+            if(us >= 0.07 && v <= vr) return (int)k;
+
+            v = Math.log(v*alpha/(a/(us*us) + b));
+            if(v <= h - logFactorial(k) - logFactorial(n - k) + (k - m)*lpq) return (int)k;
+        }
+    }
+
+
+    static double logFactorial(long k){
+        if(k < LOG_FACTORIAL_TABLE_SIZE) return LOG_FACTORIAL[(int)k];
+        //stirling series, accurate to double precision for k >= 256
+        double x = k + 1.;
+        double ix = 1./x;
+        double ix2 = ix*ix;
+        return (x - 0.5)*Math.log(x) - x + 0.5*Math.log(2.*Math.PI) + ix*(1./12. - ix2*(1./360. - ix2/1260.));
+    }
+
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+class FenwickTree {
+    //binary indexed tree over per-bacterium propensities, for the exact SSA.
+    //updating a weight, the total, and picking an entry with probability proportional to its weight are all O(log n).
+    //the entries mirror a MICStore, so removal is the same swap-with-last the store uses.
+
+    private static final int UPDATES_BETWEEN_REBUILDS = 1 << 16;
+
+    private double[] weights; //the raw weights, kept so the tree can be rebuilt without accumulated round-off
+    private double[] tree; //1-based
+    private int size;
+    private int updates_since_rebuild;
+
+
+    FenwickTree(int initial_capacity){
+        int capacity = Integer.highestOneBit(Math.max(initial_capacity, 4) - 1) << 1;
+        this.weights = new double[capacity];
+        this.tree = new double[capacity + 1];
+        this.size = 0;
+        this.updates_since_rebuild = 0;
+    }
+
+
+    int size(){
+        return size;
+    }
+
+    double getWeight(int index){
+        return weights[index];
+    }
+
+
+    private void rebuild(){
+        Arrays.fill(tree, 0.);
+        for(int i = 1; i < tree.length; i++){
+            tree[i] += weights[i-1];
+            int parent = i + (i & -i);
+            if(parent < tree.length) tree[parent] += tree[i];
+        }
+        updates_since_rebuild = 0;
+    }
+
+
+    void set(int index, double weight){
+        double delta = weight - weights[index];
+        weights[index] = weight;
+        for(int i = index + 1; i < tree.length; i += i & -i) tree[i] += delta;
+        if(++updates_since_rebuild >= UPDATES_BETWEEN_REBUILDS) rebuild();
+    }
+
+    void add(double weight){
+        if(size == weights.length){
+            weights = Arrays.copyOf(weights, 2*size);
+            tree = new double[2*size + 1];
+            rebuild();
+        }
+        size++;
+        set(size - 1, weight);
+    }
+
+    void swapRemove(int index){
+        int last = size - 1;
+        if(index != last) set(index, weights[last]);
+        set(last, 0.);
+        size--;
+    }
+
+
+    double total(){
+        double sum = 0.;
+        for(int i = size; i > 0; i -= i & -i) sum += tree[i];
+        return Math.max(sum, 0.);
+    }
+
+    int find(double u){
+        //returns the entry whose cumulative weight interval contains u, for 0 <= u < total()
+        int position = 0;
+        for(int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1){
+            int next = position + step;
+            if(next < tree.length && tree[next] <= u){
+                position = next;
+                u -= tree[next];
+            }
+        }
+        return Math.min(position, size - 1);
+    }
+
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class GridRefinement {
+    //adaptive refinement of a 2d parameter grid around a sharp boundary (for the deterioration sweep, the line in
+    //(K*, det_rate) where the biofilm goes from not growing to reaching the thickness limit).
+    //every point lives on a fine lattice of (n_coarse*2^max_levels + 1)^2 points, and its parameters are worked out
+    //from its lattice index, never by adding up increments. level 0 is the coarse grid (every 2^max_levels'th point).
+    //after each level, every square whose corners differ by at least jump in the outcome is split into four, which adds
+    //its edge midpoints and centre, and only the new squares are looked at in the next level. if the points a level
+    //wants would go over the budget, the squares with the biggest jumps go first
+
+    private final int n_coarse, max_levels, n_fine;
+    private final double x_min, x_max, y_min, y_max;
+    private final double[] outcomes; //NaN until the point's been run
+    private int n_points = 0;
+
+    //the squares to look at after the current level, as {i, j, stride} with (i, j) the lower corner
+    private ArrayList<int[]> active_squares = new ArrayList<>();
+
+
+    GridRefinement(int n_coarse, int max_levels, double x_min, double x_max, double y_min, double y_max){
+        this.n_coarse = n_coarse;
+        this.max_levels = max_levels;
+        this.n_fine = n_coarse << max_levels;
+        this.x_min = x_min;
+        this.x_max = x_max;
+        this.y_min = y_min;
+        this.y_max = y_max;
+        this.outcomes = new double[(n_fine + 1)*(n_fine + 1)];
+        Arrays.fill(outcomes, Double.NaN);
+    }
+
+
+    int latticeSize(){return n_fine + 1;}
+    int getN_points(){return n_points;}
+
+    double x(int point){
+        return x_min + (point/(n_fine + 1))*(x_max - x_min)/n_fine;
+    }
+
+    double y(int point){
+        return y_min + (point%(n_fine + 1))*(y_max - y_min)/n_fine;
+    }
+
+    private int point(int i, int j){
+        return i*(n_fine + 1) + j;
+    }
+
+
+    int[] coarsePoints(){
+        int stride = 1 << max_levels;
+        int[] points = new int[(n_coarse + 1)*(n_coarse + 1)];
+        int p = 0;
+        for(int i = 0; i <= n_fine; i += stride){
+            for(int j = 0; j <= n_fine; j += stride) points[p++] = point(i, j);
+        }
+        active_squares.clear();
+        for(int i = 0; i < n_fine; i += stride){
+            for(int j = 0; j < n_fine; j += stride) active_squares.add(new int[]{i, j, stride});
+        }
+        return points;
+    }
+
+
+    void setOutcome(int point, double outcome){
+        if(Double.isNaN(outcomes[point])) n_points++;
+        outcomes[point] = outcome;
+    }
+
+    double getOutcome(int point){
+        return outcomes[point];
+    }
+
+
+    int[] refine(double jump, int max_points){
+        //the points of the next level, empty once nothing's left to split (or the budget's used up).
+        //every point of the current level must have its outcome set first
+        ArrayList<int[]> flagged = new ArrayList<>();
+        ArrayList<Double> jumps = new ArrayList<>();
+        for(int[] sq : active_squares){
+            int i = sq[0], j = sq[1], s = sq[2];
+            if(s < 2) continue;
+            double[] corners = {outcomes[point(i, j)], outcomes[point(i+s, j)], outcomes[point(i, j+s)], outcomes[point(i+s, j+s)]};
+            double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+            for(double c : corners){
+                lo = Math.min(lo, c);
+                hi = Math.max(hi, c);
+            }
+            if(hi - lo >= jump){
+                flagged.add(sq);
+                jumps.add(hi - lo);
+            }
+        }
+
+        //biggest jumps first, ties broken by position so the order's always the same
+        Integer[] order = new Integer[flagged.size()];
+        for(int k = 0; k < order.length; k++) order[k] = k;
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(jumps.get(b), jumps.get(a));
+            return c != 0 ? c : Integer.compare(point(flagged.get(a)[0], flagged.get(a)[1]), point(flagged.get(b)[0], flagged.get(b)[1]));
+        });
+
+        ArrayList<int[]> next_squares = new ArrayList<>();
+        boolean[] queued = new boolean[outcomes.length];
+        ArrayList<Integer> new_points = new ArrayList<>();
+        for(int k : order){
+            int i = flagged.get(k)[0], j = flagged.get(k)[1], h = flagged.get(k)[2]/2;
+            int[] candidates = {point(i+h, j), point(i, j+h), point(i+2*h, j+h), point(i+h, j+2*h), point(i+h, j+h)};
+            int n_new = 0;
+            for(int c : candidates){
+                if(Double.isNaN(outcomes[c]) && !queued[c]) n_new++;
+            }
+            if(n_points + new_points.size() + n_new > max_points) continue;
+
+            for(int c : candidates){
+                if(Double.isNaN(outcomes[c]) && !queued[c]){
+                    queued[c] = true;
+                    new_points.add(c);
+                }
+            }
+            next_squares.add(new int[]{i, j, h});
+            next_squares.add(new int[]{i+h, j, h});
+            next_squares.add(new int[]{i, j+h, h});
+            next_squares.add(new int[]{i+h, j+h, h});
+        }
+        active_squares = next_squares;
+
+        //in lattice order, so the cells of a level are written out in (x, y) order
+        int[] points = new int[new_points.size()];
+        for(int p = 0; p < points.length; p++) points[p] = new_points.get(p);
+        Arrays.sort(points);
+        return points;
+    }
+
+}
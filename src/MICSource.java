@@ -0,0 +1,103 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+class MICSource {
+    //the lognormal(log(scale), sigma) distribution the MICs of immigrants are drawn from. it holds no random state:
+    //every draw comes off the stream the caller passes in (a microhabitat's own MIC stream), so one immutable instance
+    //per (scale, sigma) is shared by every microhabitat of every system, and growing the biofilm builds nothing.
+    //the normals are drawn by the ziggurat method (marsaglia & tsang 2000, in doornik's 2005 form), which nearly
+    //always costs one nextLong and a multiply, instead of box-muller's log, sqrt and cos
+
+    private static final ConcurrentHashMap<Key, MICSource> SOURCES = new ConcurrentHashMap<>();
+
+    //the 128 layers of the ziggurat. R is where the tail starts and V the area of each layer
+    private static final int N_LAYERS = 128;
+    private static final double R = 3.442619855899, V = 9.91256303526217e-3;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+    private static final double[] X = new double[N_LAYERS + 1], X_RATIO = new double[N_LAYERS];
+    static {
+        double f = Math.exp(-0.5*R*R);
+        X[0] = V/f;
+        X[1] = R;
+        X[N_LAYERS] = 0.;
+        for(int i = 2; i < N_LAYERS; i++){
+            X[i] = Math.sqrt(-2.*Math.log(V/X[i-1] + f));
+            f = Math.exp(-0.5*X[i]*X[i]);
+        }
+        for(int i = 0; i < N_LAYERS; i++) X_RATIO[i] = X[i+1]/X[i];
+    }
+
+    private final double mu, sigma;
+
+
+    private MICSource(double scale, double sigma){
+        this.mu = Math.log(scale);
+        this.sigma = sigma;
+    }
+
+    static MICSource of(double scale, double sigma){
+        return SOURCES.computeIfAbsent(new Key(scale, sigma), k -> new MICSource(k.scale, k.sigma));
+    }
+
+
+    double sample(EventSampler stream){
+        return Math.exp(mu + sigma*normal(stream));
+    }
+
+    void fill(double[] mics, int from, int to, EventSampler stream){
+        //mics[from, to) get consecutive draws, the same as calling sample for each in turn
+        for(int i = from; i < to; i++) mics[i] = normal(stream);
+        for(int i = from; i < to; i++) mics[i] = Math.exp(mu + sigma*mics[i]);
+    }
+
+
+    static double normal(EventSampler stream){
+        //a standard normal. the low 7 bits of a draw pick the layer and the top 53 the point across it, so the
+        //rectangle test, which passes ~99% of the time, needs just the one draw
+        while(true){
+            long bits = stream.nextLong();
+            int layer = (int)(bits & (N_LAYERS - 1));
+            double u = 2.*((bits >>> 11)*DOUBLE_UNIT) - 1.;
+            if(Math.abs(u) < X_RATIO[layer]) return u*X[layer];
+            if(layer == 0) return tail(stream, u < 0.);
+
+            //the wedge between the rectangle and the curve
+            double x = u*X[layer];
+            double f0 = Math.exp(-0.5*(X[layer]*X[layer] - x*x));
+            double f1 = Math.exp(-0.5*(X[layer+1]*X[layer+1] - x*x));
+            if(f1 + stream.nextDouble()*(f0 - f1) < 1.) return x;
+        }
+    }
+
+    private static double tail(EventSampler stream, boolean negative){
+        //marsaglia's method for the normal beyond R
+        double x, y;
+        do{
+            x = Math.log(1. - stream.nextDouble())/R;
+            y = Math.log(1. - stream.nextDouble());
+        }while(-2.*y < x*x);
+        return negative ? x - R : R - x;
+    }
+
+
+    private static class Key {
+        final double scale, sigma;
+
+        Key(double scale, double sigma){
+            this.scale = scale;
+            this.sigma = sigma;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return Double.compare(scale, k.scale) == 0 && Double.compare(sigma, k.sigma) == 0;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31*Double.hashCode(scale) + Double.hashCode(sigma);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+class MICStore {
+    //growable primitive list of the MICs in a microhabitat. replaces the ArrayList<Double> so the MICs aren't boxed,
+    //and so that removals don't have to shift the whole list each time.
+    //removal is either a single O(1) swap with the last entry, or a bulk compaction of everything flagged in a step.
+    //alongside each MIC are the parts of its rates that don't change while it stays in the microhabitat
+    //(the replication rate before the density factor is applied, and the death rate)
+
+    private double[] mics;
+    private double[] g_max;
+    private double[] d_rates;
+    private int size;
+
+
+    MICStore(int initial_capacity){
+        int capacity = Math.max(initial_capacity, 4);
+        this.mics = new double[capacity];
+        this.g_max = new double[capacity];
+        this.d_rates = new double[capacity];
+        this.size = 0;
+    }
+
+
+    int size(){
+        return size;
+    }
+
+    int capacity(){
+        return mics.length;
+    }
+
+    double get(int index){
+        return mics[index];
+    }
+
+    double getMaxReplicationRate(int index){
+        return g_max[index];
+    }
+
+    double getDeathRate(int index){
+        return d_rates[index];
+    }
+
+    void clear(){
+        size = 0;
+    }
+
+
+    private void ensureCapacity(int min_capacity){
+        if(min_capacity > mics.length){
+            int capacity = Math.max(min_capacity, 2*mics.length);
+            mics = Arrays.copyOf(mics, capacity);
+            g_max = Arrays.copyOf(g_max, capacity);
+            d_rates = Arrays.copyOf(d_rates, capacity);
+        }
+    }
+
+    void add(double mic, double max_g_rate, double d_rate){
+        ensureCapacity(size + 1);
+        mics[size] = mic;
+        g_max[size] = max_g_rate;
+        d_rates[size] = d_rate;
+        size++;
+    }
+
+    void addAll(double[] new_mics, int n, double c, double max_g_rate, double uniform_d_rate){
+        //appends the first n of new_mics, working out all their rates in one pass (see RateKernel)
+        addRange(new_mics, 0, n, c, max_g_rate, uniform_d_rate);
+    }
+
+    void addRange(double[] new_mics, int from, int to, double c, double max_g_rate, double uniform_d_rate){
+        int n = to - from;
+        if(n <= 0) return;
+        ensureCapacity(size + n);
+        System.arraycopy(new_mics, from, mics, size, n);
+        RateKernel.fill(c, max_g_rate, uniform_d_rate, mics, size, size + n, g_max, d_rates);
+        size += n;
+    }
+
+    void addCopies(int index, int n_copies){
+        //appends n_copies duplicates of the entry at index, rates included
+        if(n_copies <= 0) return;
+        ensureCapacity(size + n_copies);
+        Arrays.fill(mics, size, size + n_copies, mics[index]);
+        Arrays.fill(g_max, size, size + n_copies, g_max[index]);
+        Arrays.fill(d_rates, size, size + n_copies, d_rates[index]);
+        size += n_copies;
+    }
+
+
+    void scaledRates(double density_factor, double[] g_out, double[] d_out){
+        //every entry's replication rate for the given density factor, and its (absolute) death rate
+        RateKernel.scale(g_max, d_rates, size, density_factor, g_out, d_out);
+    }
+
+
+    void swapRemove(int index){
+        //the last entry is moved into the gap, so the order of the store isn't preserved
+        size--;
+        mics[index] = mics[size];
+        g_max[index] = g_max[size];
+        d_rates[index] = d_rates[size];
+    }
+
+    int compact(boolean[] flagged, int n_flaggable){
+        //removes every entry i < n_flaggable with flagged[i] set, in one pass, keeping the order of the survivors.
+        //entries at n_flaggable and beyond (e.g. offspring added during the step) are always kept.
+        //returns the number of entries removed
+        int write = 0;
+        for(int read = 0; read < size; read++){
+            if(read < n_flaggable && flagged[read]) continue;
+            mics[write] = mics[read];
+            g_max[write] = g_max[read];
+            d_rates[write] = d_rates[read];
+            write++;
+        }
+        int n_removed = size - write;
+        size = write;
+        return n_removed;
+    }
+
+}
@@ -1,34 +1,47 @@
-import org.apache.commons.math3.distribution.LogNormalDistribution;
-
-import java.util.ArrayList;
-
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 class Microhabitat {
 
-    private LogNormalDistribution MIC_distribution;
+    private final MICSource MIC_source; //the distribution the MICs of immigrants are drawn from, shared with other microhabitats
+    private EventSampler MIC_stream; //this microhabitat's own random stream, used to draw the MICs of immigrants
 
     private double c; //concn of antimicrobial
-    private ArrayList<Double> population; //list of MICs of bacteria in microhab
+    private MICStore population; //MICs of bacteria in microhab
+    private double[] new_mics = new double[8]; //scratch for MICs added in bulk
+    private CloneTable clones; //used instead of population when the bacteria are grouped into clone classes
 
-    private int K = 120; //karrying kapacity
+    private int K; //karrying kapacity
     private boolean surface = false, biofilm_region, immigration_zone = false;
-    private double max_gRate = 0.083; //max growth rate =  2/day
-    private double uniform_dRate = 0.018; //all bacteria have this death rate
+    static final double MAX_G_RATE = 0.083, UNIFORM_D_RATE = 0.018; //shared with EnsembleEngine
+    private double max_gRate = MAX_G_RATE; //max growth rate =  2/day
+    private double uniform_dRate = UNIFORM_D_RATE; //all bacteria have this death rate
     double biofilm_threshold; //fraction occupied needed to transition to biofilm
     double b = 0.2; //migration rate
 
-    Microhabitat(double c, double scale, double sigma, double biofilm_threshold){
+    Microhabitat(double c, double scale, double sigma, double biofilm_threshold, long seed){
+        this(c, scale, sigma, biofilm_threshold, 120, false, seed);
+    }
+
+    Microhabitat(double c, double scale, double sigma, double biofilm_threshold, int K, boolean clone_classes, long seed){
         this.c = c;
-        double mu = Math.log(scale);
-        this.population = new ArrayList<>(K);
+        this.K = K;
+        if(clone_classes) this.clones = new CloneTable(16);
+        else this.population = new MICStore(K);
         this.biofilm_threshold = biofilm_threshold;
-        this.MIC_distribution = new LogNormalDistribution(mu, sigma);
+        this.MIC_source = MICSource.of(scale, sigma);
+        this.MIC_stream = new EventSampler(seed);
         this.biofilm_region = false;
     }
 
 
     int getN(){
-        return population.size();
+        return clones != null ? clones.getTotal() : population.size();
+    }
+
+    boolean hasCloneClasses(){
+        return clones != null;
     }
 
     boolean isSurface(){
@@ -43,10 +56,23 @@ class Microhabitat {
         return immigration_zone;
     }
 
-    ArrayList<Double> getPopulation(){
+    MICStore getPopulation(){
         return population;
     }
 
+    double getMIC(int index){
+        return population.get(index);
+    }
+
+    CloneTable getClones(){
+        return clones;
+    }
+
+    long bufferCapacity(){
+        //the total length of the arrays the bacteria and the bulk-added MICs are kept in, for SelfChecks
+        return (population != null ? population.capacity() : 0) + new_mics.length;
+    }
+
     void setSurface(){
         this.surface = true;
     }
@@ -64,6 +90,11 @@ class Microhabitat {
         return getN()/(double) K;
     }
 
+    double densityFactor(){
+        //the (1 - N/K) that scales the replication rates, the only part of the rates that changes step to step
+        return 1. - getN()/(double) K;
+    }
+
     boolean atBiofilmThreshold(){
         return fractionFull() >= biofilm_threshold;
     }
@@ -75,46 +106,158 @@ class Microhabitat {
         return (surface || immigration_zone) ? 0.5*b : b;
     }
 
-    private double beta(int index){
-        return population.get(index);
+    //c is fixed for a microhabitat and a bacterium's MIC never changes, so everything in the rates apart from the
+    //density factor is worked out once, when the bacterium arrives here, and cached next to its MIC
+    private double maxReplicationRateForMIC(double beta){
+        return RateKernel.maxReplicationRate(c, max_gRate, beta);
     }
 
-    private double phi_c(int index){
-        //pharmacodynamic function
-        double cB = c/beta(index);
-        return 1. - (6.*cB*cB)/(5. + cB*cB);
+    private double deathRateForMIC(double beta){
+        return RateKernel.deathRate(c, max_gRate, uniform_dRate, beta);
     }
 
 
-    double[] replicationAndDeathRates(int index){
-        //returns either the growth rate and the uniform death rate if the bacteria is resistant,
+    double maxReplicationRate(int index){
+        return population.getMaxReplicationRate(index);
+    }
+
+    double deathRate(int index){
+        return population.getDeathRate(index);
+    }
+
+
+    void replicationAndDeathRates(int index, double[] g_and_d){
+        //fills g_and_d with either the growth rate and the uniform death rate if the bacteria is resistant,
         //or the sums of the uniform and pharmacodyncamic death rates is the batceria is susceptible
-        double phi_c_scaled = max_gRate*phi_c(index);
-        double gRate = phi_c_scaled > 0. ? phi_c_scaled*(1. - getN()/(double) K) : 0.;
-        double dRate = phi_c_scaled < 0. ? phi_c_scaled + uniform_dRate : uniform_dRate;
+        g_and_d[0] = population.getMaxReplicationRate(index)*densityFactor();
+        g_and_d[1] = population.getDeathRate(index);
+    }
+
 
-        return new double[]{gRate, dRate};
+    void replicationAndDeathRates(double[] g_rates, double[] d_rates){
+        //the rates of every bacterium here at once, as replicationAndDeathRates(index, ...) would give them one by one.
+        //the arrays need to hold at least getN()
+        population.scaledRates(densityFactor(), g_rates, d_rates);
     }
 
 
     void addARandomBacterium_x_N(int n_bacteria){
-        for(int i = 0; i < n_bacteria; i++) {
-            population.add(MIC_distribution.sample());
+        if(clones != null){
+            for(int i = 0; i < n_bacteria; i++) addABacterium(MIC_source.sample(MIC_stream));
+            return;
         }
+        //the MICs are drawn in the same order as they'd be added one at a time, then their rates are done in one pass
+        if(new_mics.length < n_bacteria) new_mics = new double[Math.max(n_bacteria, 2*new_mics.length)];
+        MIC_source.fill(new_mics, 0, n_bacteria, MIC_stream);
+        population.addAll(new_mics, n_bacteria, c, max_gRate, uniform_dRate);
     }
 
     void replicateABacterium_x_N(int index, int nReps){
-        for(int i = 0; i < nReps; i++) {
-            population.add(population.get(index));
-        }
+        population.addCopies(index, nReps);
     }
 
     void addABacterium(double MIC){
-        population.add(MIC);
+        if(clones != null) clones.add(MIC, maxReplicationRateForMIC(MIC), deathRateForMIC(MIC), 1);
+        else population.add(MIC, maxReplicationRateForMIC(MIC), deathRateForMIC(MIC));
+    }
+
+    void addBacteria(double[] MICs, int from, int to){
+        //adds MICs[from, to) in order, their rates done in one pass
+        if(clones != null){
+            for(int i = from; i < to; i++) addABacterium(MICs[i]);
+        }else{
+            population.addRange(MICs, from, to, c, max_gRate, uniform_dRate);
+        }
+    }
+
+    void addClones(double MIC, int count){
+        clones.add(MIC, maxReplicationRateForMIC(MIC), deathRateForMIC(MIC), count);
+    }
+
+    void addCopies(double MIC, int count){
+        //count bacteria with this MIC, whichever way the population's held
+        if(count <= 0) return;
+        if(clones != null){
+            addClones(MIC, count);
+            return;
+        }
+        population.add(MIC, maxReplicationRateForMIC(MIC), deathRateForMIC(MIC));
+        population.addCopies(population.size() - 1, count - 1);
+    }
+
+
+    void useCloneClasses(boolean on){
+        //switches the population between one entry per bacterium and (MIC, count) clone classes, for the HYBRID scheme.
+        //the bacteria and their cached rates carry over, only the order of the individuals isn't kept (they come back
+        //grouped by class, in the order the classes were first seen)
+        if(on == (clones != null)) return;
+        if(on){
+            clones = new CloneTable(16);
+            for(int i = 0; i < population.size(); i++){
+                clones.add(population.get(i), population.getMaxReplicationRate(i), population.getDeathRate(i), 1);
+            }
+            population = null;
+        }else{
+            population = new MICStore(Math.max(K, clones.getTotal()));
+            for(int c = 0; c < clones.getN_classes(); c++){
+                if(clones.getCount(c) == 0) continue;
+                population.add(clones.getMIC(c), clones.getMaxReplicationRate(c), clones.getDeathRate(c));
+                population.addCopies(population.size() - 1, clones.getCount(c) - 1);
+            }
+            clones = null;
+        }
+    }
+
+
+    void writeState(DataOutputStream out) throws IOException{
+        //everything that changes over a run. c, K and the MIC distribution come from the BioSystem's parameters
+        out.writeBoolean(surface);
+        out.writeBoolean(biofilm_region);
+        out.writeBoolean(immigration_zone);
+        out.writeLong(MIC_stream.getState());
+        out.writeBoolean(clones != null);
+        if(clones != null){
+            out.writeInt(clones.getN_classes());
+            for(int i = 0; i < clones.getN_classes(); i++){
+                out.writeDouble(clones.getMIC(i));
+                out.writeInt(clones.getCount(i));
+            }
+        }else{
+            out.writeInt(population.size());
+            for(int i = 0; i < population.size(); i++) out.writeDouble(population.get(i));
+        }
+    }
+
+    void readState(DataInputStream in, boolean has_mode) throws IOException{
+        //restores what writeState wrote into a freshly built (empty) microhabitat. the bacteria go back in the same
+        //order, and their cached rates are recalculated as they're added. has_mode is false for snapshots from before
+        //a microhabitat could switch between individuals and clone classes, which are always in the scheme's one
+        surface = in.readBoolean();
+        biofilm_region = in.readBoolean();
+        immigration_zone = in.readBoolean();
+        MIC_stream.setState(in.readLong());
+        if(has_mode) useCloneClasses(in.readBoolean());
+        int n_entries = in.readInt();
+        if(clones != null){
+            for(int i = 0; i < n_entries; i++){
+                double mic = in.readDouble();
+                addClones(mic, in.readInt());
+            }
+        }else{
+            if(new_mics.length < n_entries) new_mics = new double[n_entries];
+            for(int i = 0; i < n_entries; i++) new_mics[i] = in.readDouble();
+            population.addAll(new_mics, n_entries, c, max_gRate, uniform_dRate);
+        }
     }
 
     void removeABacterium(int index){
-        population.remove(index);
+        //swaps the last bacterium into the gap, so indices aren't preserved
+        population.swapRemove(index);
+    }
+
+    int removeFlaggedBacteria(boolean[] flagged, int n_flaggable){
+        //removes all the flagged bacteria out of the first n_flaggable in one pass, returns how many went
+        return population.compact(flagged, n_flaggable);
     }
 
 
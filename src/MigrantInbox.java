@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+class MigrantInbox {
+    //migrants on their way into a microhabitat which runs on its own local clock.
+    //each one is stamped with the end of the leap it left its old microhabitat in, and is only added to the new one
+    //once that microhabitat has finished the leap the stamp falls in
+
+    private double[] mics = new double[8];
+    private double[] arrival_times = new double[8];
+    private int size = 0;
+
+
+    int size(){
+        return size;
+    }
+
+
+    void add(double mic, double arrival_time){
+        if(size == mics.length){
+            mics = Arrays.copyOf(mics, 2*size);
+            arrival_times = Arrays.copyOf(arrival_times, 2*size);
+        }
+        mics[size] = mic;
+        arrival_times[size] = arrival_time;
+        size++;
+    }
+
+
+    int deliverArrivedBy(double time, Microhabitat destination){
+        //moves every migrant stamped at or before time into destination, returns how many were delivered
+        int write = 0;
+        for(int read = 0; read < size; read++){
+            if(arrival_times[read] <= time){
+                destination.addABacterium(mics[read]);
+            }else{
+                mics[write] = mics[read];
+                arrival_times[write] = arrival_times[read];
+                write++;
+            }
+        }
+        int n_delivered = size - write;
+        size = write;
+        return n_delivered;
+    }
+
+}
@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class MigrationExchange {
+    //migration as its own phase of a tau-leaping step. while the step's events are applied, each microhabitat's
+    //migrants go into its outbox, so no microhabitat is written to while it, or a neighbour, is still being read.
+    //once every microhabitat's been compacted the outboxes are exchanged in one pass: each is split into its left
+    //half (moving down, towards the surface) and right half (moving up), then every destination gets the right half
+    //of the outbox below it followed by the left half of the one above.
+    //the surface only sends bacteria up and the immigration zone only down. everywhere else the number going up is
+    //one binomial(n, 1/2) draw per outbox, instead of a coin flip per migrant, and which ones go up is a partial
+    //shuffle over the smaller of the two halves (so with the usual one or no migrant it costs nothing more).
+    //EnsembleEngine does the same exchange on its own arrays, through split
+
+    private double[][] outboxes = new double[0][];
+    private int[] sizes = new int[0], n_left = new int[0];
+    private int n_microhabitats = 0;
+
+
+    void clear(int n_microhabitats){
+        if(outboxes.length < n_microhabitats){
+            int old_length = outboxes.length;
+            outboxes = Arrays.copyOf(outboxes, n_microhabitats);
+            sizes = Arrays.copyOf(sizes, n_microhabitats);
+            n_left = Arrays.copyOf(n_left, n_microhabitats);
+            for(int m = old_length; m < n_microhabitats; m++) outboxes[m] = new double[16];
+        }
+        Arrays.fill(sizes, 0, n_microhabitats, 0);
+        this.n_microhabitats = n_microhabitats;
+    }
+
+
+    long capacity(){
+        //the total length of the outboxes, which only changes when one grows
+        long capacity = 0;
+        for(double[] outbox : outboxes) capacity += outbox.length;
+        return capacity;
+    }
+
+
+    void add(int mh_index, double mic){
+        if(sizes[mh_index] == outboxes[mh_index].length) outboxes[mh_index] = Arrays.copyOf(outboxes[mh_index], 2*sizes[mh_index]);
+        outboxes[mh_index][sizes[mh_index]++] = mic;
+    }
+
+
+    int exchange(ArrayList<Microhabitat> microhabitats, EventSampler sampler){
+        //splits every outbox then delivers them all, returns the number of migrants
+        int n_migrants = 0;
+        for(int m = 0; m < n_microhabitats; m++){
+            Microhabitat mh = microhabitats.get(m);
+            n_left[m] = split(outboxes[m], sizes[m], mh.isSurface(), mh.isImmigration_zone(), sampler);
+            n_migrants += sizes[m];
+        }
+        if(n_migrants == 0) return 0;
+
+        for(int d = 0; d < n_microhabitats; d++){
+            Microhabitat destination = microhabitats.get(d);
+            if(d > 0) destination.addBacteria(outboxes[d-1], n_left[d-1], sizes[d-1]);
+            if(d + 1 < n_microhabitats) destination.addBacteria(outboxes[d+1], 0, n_left[d+1]);
+        }
+        return n_migrants;
+    }
+
+
+    static int split(double[] outbox, int n, boolean only_up, boolean only_down, EventSampler sampler){
+        //rearranges the first n of outbox into [left | right] and returns the size of the left half
+        if(n == 0 || only_up) return 0;
+        if(only_down) return n;
+
+        int n_right = sampler.binomial(n, 0.5);
+        //the smaller half is picked uniformly by a partial fisher-yates shuffle into the end of the outbox
+        int n_picked = Math.min(n_right, n - n_right);
+        for(int j = 0; j < n_picked; j++){
+            int pick = sampler.nextInt(n - j), last = n - 1 - j;
+            double picked = outbox[pick];
+            outbox[pick] = outbox[last];
+            outbox[last] = picked;
+        }
+        if(n_picked == n_right) return n - n_right;
+
+        //the picked ones are the left half, so they're rotated round to the front
+        rotate(outbox, n, n_picked);
+        return n_picked;
+    }
+
+    private static void rotate(double[] a, int n, int k){
+        //moves the last k of the first n to the front
+        reverse(a, 0, n - k);
+        reverse(a, n - k, n);
+        reverse(a, 0, n);
+    }
+
+    private static void reverse(double[] a, int from, int to){
+        for(int i = from, j = to - 1; i < j; i++, j--){
+            double t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+}
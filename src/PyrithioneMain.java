@@ -1,6 +1,46 @@
+import java.io.File;
+
 //this is an updated version of the deterioration rate diagnostic program, but with the poisson reseeding bug now fixed.
 public class PyrithioneMain {
     public static void main(String[] args){
+        //with no arguments this runs the sweep here, "ensemble" runs it here with each cell's replicates batched.
+        //to spread it over several jvms/machines, start one coordinator:
+        //  coordinator [port]
+        //(or coordinator-tau [port] for the tau step sweep)
+        //and as many workers as you like (on this machine or others):
+        //  worker <coordinator host> <port> [n_threads]
+        //or, for a sweep described in a file (see SweepSpec), with results cached under cache/:
+        //  spec <spec file> [--shard i/n]
+
+        if(args.length > 1 && args[0].equals("spec")){
+            int shard = 1, n_shards = 1;
+            if(args.length > 3 && args[2].equals("--shard")){
+                String[] parts = args[3].split("/");
+                shard = Integer.parseInt(parts[0]);
+                n_shards = Integer.parseInt(parts[1]);
+            }
+            BioSystem.specSweep(SweepSpec.read(new File(args[1])), shard, n_shards);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("ensemble")){
+            BioSystem.ensembleDeteriorationAndThreshold(0.01, UpdateScheme.TAU_LEAP, 120, null, StoppingRule.fixed(15));
+            return;
+        }
+        if(args.length > 0 && args[0].equals("coordinator")){
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 7741;
+            BioSystem.distributedDeteriorationAndThreshold(0.01, UpdateScheme.TAU_LEAP, 120, null, StoppingRule.fixed(15), port);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("coordinator-tau")){
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 7741;
+            BioSystem.distributedTauStep(BioSystem.SUSCEPTIBLE_SCALE, BioSystem.SUSCEPTIBLE_SIGMA, UpdateScheme.TAU_LEAP, null, StoppingRule.fixed(20), port);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("worker")){
+            int n_threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            new SweepWorker(args[1], Integer.parseInt(args[2])).run(n_threads);
+            return;
+        }
 
         BioSystem.varyingDeteriorationAndThreshold(0.01);
 
@@ -0,0 +1,122 @@
+class QuantileSketch {
+    //relative error quantile sketch (masson, rim & lee's ddsketch). values go into logarithmically sized buckets, bucket
+    //k holding (gamma^(k-1), gamma^k], so any quantile comes back within relative_accuracy of an actual value in that
+    //position. two sketches with the same accuracy merge by adding their bucket counts, which is exact and doesn't depend
+    //on the order replicates were added in or which thread added them.
+    //the buckets are long[] windows over the key range that's been seen, for the sweeps' values that's a few hundred keys
+
+    static final double DEFAULT_RELATIVE_ACCURACY = 0.005;
+
+    private final double relative_accuracy, gamma, log_gamma;
+    private final Store positives = new Store(), negatives = new Store();
+    private long zero_count = 0, count = 0;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+
+    QuantileSketch(){
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    QuantileSketch(double relative_accuracy){
+        this.relative_accuracy = relative_accuracy;
+        this.gamma = (1. + relative_accuracy)/(1. - relative_accuracy);
+        this.log_gamma = Math.log(gamma);
+    }
+
+
+    long getCount(){return count;}
+
+
+    void add(double value){
+        if(Double.isNaN(value)) return;
+        if(value >= Double.MIN_NORMAL) positives.add(key(value), 1);
+        else if(value <= -Double.MIN_NORMAL) negatives.add(key(-value), 1);
+        else zero_count++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+
+    void merge(QuantileSketch other){
+        if(other.relative_accuracy != relative_accuracy){
+            throw new IllegalArgumentException("can't merge sketches with accuracies "+relative_accuracy+" and "+other.relative_accuracy);
+        }
+        positives.merge(other.positives);
+        negatives.merge(other.negatives);
+        zero_count += other.zero_count;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+
+    double quantile(double q){
+        //the value of rank q*(count-1), clamped to the smallest and largest values added. NaN if nothing's been added
+        if(count == 0) return Double.NaN;
+        if(q <= 0.) return min;
+        if(q >= 1.) return max;
+        long rank = (long)(q*(count - 1));
+
+        long seen = 0;
+        //negatives, most negative first
+        for(int i = negatives.counts.length - 1; i >= 0; i--){
+            seen += negatives.counts[i];
+            if(seen > rank) return clamp(-value(negatives.offset + i));
+        }
+        seen += zero_count;
+        if(seen > rank) return 0.;
+        for(int i = 0; i < positives.counts.length; i++){
+            seen += positives.counts[i];
+            if(seen > rank) return clamp(value(positives.offset + i));
+        }
+        return max;
+    }
+
+
+    private int key(double abs_value){
+        return (int)Math.ceil(Math.log(abs_value)/log_gamma);
+    }
+
+    private double value(int key){
+        //the point in bucket key that's within relative_accuracy of both its ends
+        return 2.*Math.pow(gamma, key)/(gamma + 1.);
+    }
+
+    private double clamp(double value){
+        return Math.max(min, Math.min(max, value));
+    }
+
+
+    private static class Store {
+        long[] counts = new long[0];
+        int offset = 0; //the key of counts[0]
+
+        void add(int key, long n){
+            if(counts.length == 0){
+                counts = new long[8];
+                offset = key - 4;
+            }
+            if(key < offset || key >= offset + counts.length) grow(key);
+            counts[key - offset] += n;
+        }
+
+        void merge(Store other){
+            for(int i = 0; i < other.counts.length; i++){
+                if(other.counts[i] != 0) add(other.offset + i, other.counts[i]);
+            }
+        }
+
+        private void grow(int key){
+            int lo = Math.min(key, offset), hi = Math.max(key, offset + counts.length - 1);
+            //leave some room on whichever side grew, so a run of new extremes doesn't copy every time
+            int length = Math.max(hi - lo + 1, 2*counts.length);
+            int new_offset = key < offset ? hi + 1 - length : lo;
+            long[] grown = new long[length];
+            System.arraycopy(counts, 0, grown, offset - new_offset, counts.length);
+            counts = grown;
+            offset = new_offset;
+        }
+    }
+
+}
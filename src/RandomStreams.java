@@ -0,0 +1,41 @@
+final class RandomStreams {
+    //derives the seed of every random stream in a sweep from one master seed.
+    //each (grid cell, replicate) gets a replicate seed, and within a replicate stream 0 drives the BioSystem's events
+    //and stream i+1 drives microhabitat i. the seeds are put through the splitmix64 finaliser at each level, so
+    //neighbouring cells/replicates/microhabitats get unrelated generators and no two replicates share any state.
+    //given the master seed, the cell index and the replicate index, any replicate can be rerun bit-for-bit on its own.
+    //spec sweeps use the cell's key (see SweepSpec) in place of its index, so a cell's seeds don't depend on the grid
+
+    static final int EVENT_STREAM = 0;
+
+    private RandomStreams(){}
+
+
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long derive(long parent, long child){
+        return mix(parent + mix(child + 0x9e3779b97f4a7c15L));
+    }
+
+
+    static long replicateSeed(long master_seed, int cell, int rep){
+        return derive(derive(master_seed, cell), rep);
+    }
+
+    static long keyedReplicateSeed(long master_seed, long cell_key, int rep){
+        return derive(derive(master_seed, cell_key), rep);
+    }
+
+    static long streamSeed(long replicate_seed, int stream){
+        return derive(replicate_seed, stream);
+    }
+
+    static long microhabitatStreamSeed(long replicate_seed, int mh_index){
+        return streamSeed(replicate_seed, mh_index + 1);
+    }
+
+}
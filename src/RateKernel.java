@@ -0,0 +1,71 @@
+class RateKernel {
+    //the per-bacterium rate arithmetic, done for a whole run of bacteria at a time. there are two passes:
+    //  fill: the pharmacodynamic parts of the rates (see Microhabitat) for a run of newly arrived MICs
+    //  scale: the step's growth rates (the cached max rate times the density factor) and death rates, for a whole
+    //         microhabitat
+    //both are pure element-wise arithmetic, so they go through VectorRateKernel (jdk.incubator.vector) where that
+    //module's available, and the scalar loops here otherwise or with -Dbiofilm.vector=false.
+    //the vector path does exactly the same ieee operations in the same order on each lane (no fma, no reductions),
+    //so the two give bit-identical rates and a run doesn't depend on which was used. Benchmarks rateKernel checks it
+
+    static final boolean VECTORISED = vectorAvailable();
+    private static final int VECTOR_LANES = VECTORISED ? VectorRateKernel.lanes() : Integer.MAX_VALUE;
+
+
+    private static boolean vectorAvailable(){
+        if(!Boolean.parseBoolean(System.getProperty("biofilm.vector", "true"))) return false;
+        try{
+            return VectorRateKernel.lanes() > 1;
+        }catch(LinkageError e){
+            //run without --add-modules jdk.incubator.vector
+            return false;
+        }
+    }
+
+
+    static double maxReplicationRate(double c, double max_g_rate, double beta){
+        double phi_c_scaled = max_g_rate*phi_c(c, beta);
+        return phi_c_scaled > 0. ? phi_c_scaled : 0.;
+    }
+
+    static double deathRate(double c, double max_g_rate, double uniform_d_rate, double beta){
+        double phi_c_scaled = max_g_rate*phi_c(c, beta);
+        return phi_c_scaled < 0. ? phi_c_scaled + uniform_d_rate : uniform_d_rate;
+    }
+
+    private static double phi_c(double c, double beta){
+        //pharmacodynamic function
+        double cB = c/beta;
+        return 1. - (6.*cB*cB)/(5. + cB*cB);
+    }
+
+
+    static void fill(double c, double max_g_rate, double uniform_d_rate, double[] mics, int from, int to, double[] g_max, double[] d_rates){
+        //g_max[i] and d_rates[i] for every mics[i], from <= i < to. a run shorter than a vector (one or two immigrants,
+        //say) goes straight to the scalar loop, setting up the vector constants would cost more than it saves
+        if(VECTORISED && to - from >= VECTOR_LANES) VectorRateKernel.fill(c, max_g_rate, uniform_d_rate, mics, from, to, g_max, d_rates);
+        else fillScalar(c, max_g_rate, uniform_d_rate, mics, from, to, g_max, d_rates);
+    }
+
+    static void fillScalar(double c, double max_g_rate, double uniform_d_rate, double[] mics, int from, int to, double[] g_max, double[] d_rates){
+        for(int i = from; i < to; i++){
+            g_max[i] = maxReplicationRate(c, max_g_rate, mics[i]);
+            d_rates[i] = deathRate(c, max_g_rate, uniform_d_rate, mics[i]);
+        }
+    }
+
+
+    static void scale(double[] g_max, double[] d_rates, int n, double density_factor, double[] g_out, double[] d_out){
+        //g_out[i] = g_max[i]*density_factor and d_out[i] = |d_rates[i]|, for i < n
+        if(VECTORISED && n >= VECTOR_LANES) VectorRateKernel.scale(g_max, d_rates, n, density_factor, g_out, d_out);
+        else scaleScalar(g_max, d_rates, n, density_factor, g_out, d_out);
+    }
+
+    static void scaleScalar(double[] g_max, double[] d_rates, int n, double density_factor, double[] g_out, double[] d_out){
+        for(int i = 0; i < n; i++){
+            g_out[i] = g_max[i]*density_factor;
+            d_out[i] = Math.abs(d_rates[i]);
+        }
+    }
+
+}
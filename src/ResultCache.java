@@ -0,0 +1,76 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ResultCache {
+    //the finished replicates of spec sweeps (see SweepSpec), kept on disk by the key of their cell. a cell's directory
+    //is <directory>/<first two hex digits of the key>/<key>, holding params.txt (what the key was made from, so a
+    //cache can be browsed) and a rep-<rep>.done per finished replicate, in SweepCheckpoint's format.
+    //nothing's ever overwritten or expired: a key covers the engine version, so results from an older engine just
+    //stop being found. the files are written to a temporary file and moved into place, so caches from several
+    //machines can be merged by copying one directory over another
+
+    private static final String PARAMS = "params.txt";
+
+    private final File directory;
+    private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+
+    ResultCache(File directory){
+        this.directory = directory;
+        if(!directory.exists()) directory.mkdirs();
+    }
+
+
+    int getHits(){return hits.get();}
+    int getMisses(){return misses.get();}
+
+
+    Databox get(SweepSpec.Cell cell, int rep){
+        //null if the replicate isn't cached
+        File file = new File(cellDirectory(cell), "rep-"+rep+".done");
+        if(!file.exists()){
+            misses.incrementAndGet();
+            return null;
+        }
+        try(BufferedReader br = new BufferedReader(new FileReader(file))){
+            Databox db = Databox.fromArray(SweepCheckpoint.parseValues(br.readLine().trim().split("\\s+"), 0));
+            hits.incrementAndGet();
+            return db;
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    void put(SweepSpec.Cell cell, int rep, Databox db){
+        File cell_directory = cellDirectory(cell);
+        if(!cell_directory.exists()) cell_directory.mkdirs();
+        File params = new File(cell_directory, PARAMS);
+        if(!params.exists()) write(params, cell.description());
+        write(new File(cell_directory, "rep-"+rep+".done"), SweepCheckpoint.formatValues(db.allDataInAnArray()));
+    }
+
+
+    private File cellDirectory(SweepSpec.Cell cell){
+        return new File(new File(directory, cell.key.substring(0, 2)), cell.key);
+    }
+
+    private static void write(File file, String contents){
+        //the temporary file's name is unique to the thread, two threads can put the same cell's params at once
+        File temp = new File(file.getParentFile(), file.getName()+"."+Thread.currentThread().getId()+".tmp");
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(temp))){
+            bw.write(contents);
+            bw.newLine();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        SweepCheckpoint.moveIntoPlace(temp, file);
+    }
+
+}
@@ -0,0 +1,113 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+class ResultReader {
+    //reads the results written by ResultWriter, including those of a sweep that's still running.
+    //the columnar format is memory-mapped, so pulling a column out of a big file doesn't read the rest of it.
+    //the row count is the length of the shortest column, so a row that's only part written isn't seen yet.
+    //call refresh() to pick up rows added since the reader was opened
+
+    private final File column_directory;
+    private final String[] headers;
+    private DoubleBuffer[] columns;
+    private int n_rows;
+
+
+    ResultReader(String directoryName, String filename){
+        this.column_directory = new File(directoryName, filename+ResultWriter.COLUMNAR_SUFFIX);
+
+        ArrayList<String> names = new ArrayList<>();
+        try(BufferedReader br = new BufferedReader(new FileReader(new File(column_directory, ResultWriter.COLUMN_NAMES_FILE)))){
+            String line;
+            while((line = br.readLine()) != null){
+                if(!line.isEmpty()) names.add(line);
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        this.headers = names.toArray(new String[0]);
+        refresh();
+    }
+
+
+    void refresh(){
+        DoubleBuffer[] mapped = new DoubleBuffer[headers.length];
+        long min_rows = Long.MAX_VALUE;
+        for(int c = 0; c < headers.length; c++){
+            try(FileChannel channel = FileChannel.open(ResultWriter.columnFile(column_directory, c).toPath(), StandardOpenOption.READ)){
+                //the mapping stays valid after the channel's closed
+                mapped[c] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                min_rows = Math.min(min_rows, mapped[c].limit());
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        this.columns = mapped;
+        this.n_rows = headers.length == 0 ? 0 : (int)min_rows;
+    }
+
+
+    String[] getHeaders(){return headers.clone();}
+    int getN_rows(){return n_rows;}
+
+    int columnIndex(String header){
+        for(int c = 0; c < headers.length; c++){
+            if(headers[c].equals(header)) return c;
+        }
+        throw new IllegalArgumentException("no column called "+header+" in "+column_directory);
+    }
+
+    double get(int row, int column){
+        if(row >= n_rows) throw new IndexOutOfBoundsException("row "+row+" of "+n_rows);
+        return columns[column].get(row);
+    }
+
+    double[] column(String header){
+        double[] vals = new double[n_rows];
+        columns[columnIndex(header)].get(0, vals, 0, n_rows);
+        return vals;
+    }
+
+    Databox row(int row){
+        double[] vals = new double[headers.length];
+        for(int c = 0; c < headers.length; c++) vals[c] = get(row, c);
+        return Databox.fromArray(vals);
+    }
+
+
+    static ArrayList<Databox> readTextFile(String directoryName, String filename){
+        //reads the padded text format, ignoring the header and any last line that's only part written
+        ArrayList<Databox> rows = new ArrayList<>();
+        try(BufferedReader br = new BufferedReader(new FileReader(new File(directoryName, filename+".txt")))){
+            String line;
+            int n_columns = -1;
+            while((line = br.readLine()) != null){
+                String[] parts = line.trim().split("\\s*,\\s*");
+                if(line.startsWith("#")){
+                    n_columns = parts.length;
+                    continue;
+                }
+                if(parts.length != n_columns) continue;
+                double[] vals = new double[n_columns];
+                try{
+                    for(int i = 0; i < n_columns; i++) vals[i] = Double.parseDouble(parts[i]);
+                }catch(NumberFormatException e){
+                    continue;
+                }
+                rows.add(Databox.fromArray(vals));
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+}
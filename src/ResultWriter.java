@@ -0,0 +1,170 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+class ResultWriter implements SweepExecutor.CellListener, AutoCloseable {
+    //writes a sweep's results out as each cell completes, instead of holding every databox until the end.
+    //rows always go out in cell order: a cell that finishes ahead of an earlier one is held until the earlier one's in,
+    //so a partly written file is always the first n cells of the sweep.
+    //
+    //TEXT is the padded, comma separated format writeDataboxArraylistToFile has always written (<filename>.txt).
+    //COLUMNAR is a directory (<filename>.cols) holding columns.txt (one header per line) and one file per column of
+    //little-endian doubles (col-<index>.f64). appending a row adds 8 bytes to the end of each column file, so the files
+    //can be memory-mapped and read while the sweep's still writing to them (see ResultReader)
+
+    enum Format {TEXT, COLUMNAR}
+
+    static final String COLUMNAR_SUFFIX = ".cols";
+    static final String COLUMN_NAMES_FILE = "columns.txt";
+
+    private final String[] headers;
+    private final int string_length;
+    private final BufferedWriter text_writer;
+    private final FileChannel[] column_channels;
+    private final ByteBuffer value_buffer = ByteBuffer.allocate(Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final StringBuilder line = new StringBuilder();
+
+    private final HashMap<Integer, Databox> held_cells = new HashMap<>();
+    private int next_cell = 0;
+
+
+    ResultWriter(String directoryName, String filename, String[] headers, Format... formats){
+        //any existing output with the same name is replaced
+        this.headers = headers.clone();
+        this.string_length = Math.max(12, largestHeaderLength(headers)+3);
+
+        File directory = new File(directoryName);
+        if(!directory.exists()) directory.mkdirs();
+
+        BufferedWriter text = null;
+        FileChannel[] columns = null;
+        try{
+            for(Format format : formats){
+                if(format == Format.TEXT){
+                    text = new BufferedWriter(new FileWriter(new File(directory, filename+".txt")));
+                    writeTextHeader(text);
+                }else{
+                    columns = openColumns(new File(directory, filename+COLUMNAR_SUFFIX));
+                }
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        this.text_writer = text;
+        this.column_channels = columns;
+    }
+
+
+    @Override
+    public synchronized void cellCompleted(int cell, Databox averaged){
+        held_cells.put(cell, averaged);
+        while(held_cells.containsKey(next_cell)){
+            append(held_cells.remove(next_cell));
+            next_cell++;
+        }
+    }
+
+
+    synchronized void append(Databox db){
+        //writes a row straight away, regardless of cell order
+        double[] vals = db.allDataInAnArray();
+        try{
+            if(text_writer != null) writeTextRow(vals);
+            if(column_channels != null) writeColumnarRow(vals);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    @Override
+    public synchronized void close(){
+        try{
+            if(text_writer != null) text_writer.close();
+            if(column_channels != null){
+                for(FileChannel channel : column_channels) channel.close();
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        if(!held_cells.isEmpty()) System.out.println(held_cells.size()+" cells weren't written, as an earlier cell never completed");
+    }
+
+
+    private void writeTextHeader(BufferedWriter bw) throws IOException{
+        line.setLength(0);
+        for(int i = 0; i < headers.length; i++){
+            String heado = (i == 0 ? "#" : "")+headers[i]+(i < headers.length-1 ? "," : "");
+            pad(heado);
+        }
+        bw.write(line.toString());
+        bw.flush();
+    }
+
+    private void writeTextRow(double[] vals) throws IOException{
+        line.setLength(0);
+        for(int v = 0; v < vals.length; v++){
+            String num_val = String.format("%.4E", vals[v])+(v < vals.length-1 ? "," : "");
+            pad(num_val);
+        }
+        text_writer.newLine();
+        text_writer.write(line.toString());
+        //flushed every row so the file can be read part way through a sweep
+        text_writer.flush();
+    }
+
+    private void pad(String s){
+        line.append(s);
+        for(int i = s.length(); i < string_length; i++) line.append(' ');
+    }
+
+
+    private FileChannel[] openColumns(File column_directory) throws IOException{
+        if(!column_directory.exists()) column_directory.mkdirs();
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File(column_directory, COLUMN_NAMES_FILE)))){
+            for(String header : headers){
+                bw.write(header);
+                bw.newLine();
+            }
+        }
+
+        FileChannel[] channels = new FileChannel[headers.length];
+        for(int c = 0; c < headers.length; c++){
+            channels[c] = FileChannel.open(columnFile(column_directory, c).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        return channels;
+    }
+
+    private void writeColumnarRow(double[] vals) throws IOException{
+        if(vals.length != column_channels.length){
+            throw new IllegalArgumentException("row has "+vals.length+" values but there are "+column_channels.length+" columns");
+        }
+        for(int c = 0; c < vals.length; c++){
+            value_buffer.clear();
+            value_buffer.putDouble(vals[c]).flip();
+            while(value_buffer.hasRemaining()) column_channels[c].write(value_buffer);
+        }
+    }
+
+    static File columnFile(File column_directory, int column){
+        return new File(column_directory, String.format("col-%02d.f64", column));
+    }
+
+
+    private static int largestHeaderLength(String[] headers){
+        int biggun = 0;
+        for(String s : headers){
+            if(s.length() > biggun) biggun = s.length();
+        }
+        return biggun;
+    }
+
+}
@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import com.sun.management.ThreadMXBean;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class SelfChecks {
+    //checks on the hot paths that timing them wouldn't catch (that the fast paths give exactly what the code they
+    //stand in for gives, that the ziggurat draws standard normals, and that a step allocates nothing), kept out of
+    //the benchmarks so a script can run them on their own and stop on a failure. each check prints what it found, and if any fails this
+    //exits with status 1. compiler_script.txt runs them all before starting a sweep, or:
+    //  java --add-modules jdk.incubator.vector -cp ".:java_jars/*" SelfChecks [name filter]
+    //or from the pom, mvn compile exec:exec@selfchecks, which fails the build if a check does
+    //the benchmarks of the rate kernel and the mic source run their checks first too
+
+    private static final long SEED = 20181106L;
+
+
+    public static void main(String[] args){
+        String filter = args.length > 0 ? args[0] : "";
+        int failures = 0;
+
+        if("rateKernel".contains(filter)) failures += run("rateKernel", SelfChecks::checkRateKernels);
+        if("micSource".contains(filter)) failures += run("micSource", SelfChecks::checkMICSource);
+        if("stepAllocation".contains(filter)) failures += run("stepAllocation", SelfChecks::checkStepAllocation);
+
+        if(failures > 0){
+            System.out.println(failures+" check(s) failed");
+            System.exit(1);
+        }
+    }
+
+
+    private static int run(String name, Runnable check){
+        //the number of failures, 0 or 1
+        try{
+            check.run();
+            return 0;
+        }catch(RuntimeException e){
+            System.out.println(name+" FAILED: "+e.getMessage());
+            return 1;
+        }
+    }
+
+
+    static void checkRateKernels(){
+        //the vector and scalar rate passes have to agree to the bit, or runs would depend on the machine. checked on
+        //lognormal MICs like the immigrants', plus the edge cases: an MIC equal to c (phi_c = 0), the ones either
+        //side of phi_c = 0, and MICs tiny and huge relative to c
+        if(!RateKernel.VECTORISED){
+            System.out.println("rateKernel: vector path unavailable (needs --add-modules jdk.incubator.vector), only the scalar path runs");
+            return;
+        }
+        EventSampler rng = new EventSampler(SEED);
+        double c = 5., max_g_rate = 0.083, uniform_d_rate = 0.018;
+        int n = 1003; //not a multiple of any vector length, so the tails get checked too
+        double[] mics = new double[n];
+        for(int i = 0; i < n; i++) mics[i] = Math.exp(Math.log(2.71760274) + 0.56002833*rng.nextGaussian());
+        double c_root5 = c*Math.sqrt(5.); //phi_c = 0 here
+        double[] edges = {c, c_root5, Math.nextUp(c_root5), Math.nextDown(c_root5), 1e-300, 1e300, Double.MIN_VALUE, Double.MAX_VALUE};
+        System.arraycopy(edges, 0, mics, n - edges.length - 1, edges.length);
+
+        double[] g_scalar = new double[n], d_scalar = new double[n], g_vector = new double[n], d_vector = new double[n];
+        for(int from : new int[]{0, 1, 7}){
+            RateKernel.fillScalar(c, max_g_rate, uniform_d_rate, mics, from, n, g_scalar, d_scalar);
+            VectorRateKernel.fill(c, max_g_rate, uniform_d_rate, mics, from, n, g_vector, d_vector);
+            compareRates("fill", g_scalar, g_vector, d_scalar, d_vector);
+        }
+        for(double density_factor : new double[]{1., 0.37, 0., -0.25}){
+            RateKernel.scaleScalar(g_scalar, d_scalar, n, density_factor, g_vector, d_vector);
+            double[] g_out = new double[n], d_out = new double[n];
+            VectorRateKernel.scale(g_scalar, d_scalar, n, density_factor, g_out, d_out);
+            compareRates("scale", g_vector, g_out, d_vector, d_out);
+        }
+        System.out.println("rateKernel: vector ("+VectorRateKernel.lanes()+" lanes) and scalar rates are identical");
+    }
+
+    private static void compareRates(String pass, double[] g_scalar, double[] g_vector, double[] d_scalar, double[] d_vector){
+        for(int i = 0; i < g_scalar.length; i++){
+            if(Double.doubleToRawLongBits(g_scalar[i]) != Double.doubleToRawLongBits(g_vector[i])
+                    || Double.doubleToRawLongBits(d_scalar[i]) != Double.doubleToRawLongBits(d_vector[i])){
+                throw new IllegalStateException(String.format(Locale.ROOT, "rateKernel %s: scalar (%s, %s) != vector (%s, %s) at %d",
+                        pass, g_scalar[i], d_scalar[i], g_vector[i], d_vector[i], i));
+            }
+        }
+    }
+
+
+    static void checkMICSource(){
+        //the ziggurat's normals checked against the moments and tail masses of the standard normal, over enough draws
+        //that the layer edges, the wedges and the tail beyond 3.44 all come up many times
+        EventSampler rng = new EventSampler(SEED);
+        int n = 10_000_000;
+        double[] thresholds = {0.5, 1., 2., 3., 3.442619855899, 4.};
+        double[] expected = {0.30853754, 0.15865525, 0.02275013, 0.00134990, 2.8803e-4, 3.1671e-5}; //P(z > t)
+        long[] above = new long[thresholds.length], below = new long[thresholds.length];
+        double mean = 0., m2 = 0.;
+        for(int i = 0; i < n; i++){
+            double z = MICSource.normal(rng);
+            double delta = z - mean;
+            mean += delta/(i + 1);
+            m2 += delta*(z - mean);
+            for(int t = 0; t < thresholds.length; t++){
+                if(z > thresholds[t]) above[t]++;
+                if(z < -thresholds[t]) below[t]++;
+            }
+        }
+        double variance = m2/(n - 1);
+        //5 standard errors either way
+        if(Math.abs(mean) > 5./Math.sqrt(n) || Math.abs(variance - 1.) > 5.*Math.sqrt(2./n)){
+            throw new IllegalStateException("micSource: normals have mean "+mean+" and variance "+variance);
+        }
+        for(int t = 0; t < thresholds.length; t++){
+            double tolerance = 5.*Math.sqrt(expected[t]*(1. - expected[t])/n);
+            for(long count : new long[]{above[t], below[t]}){
+                if(Math.abs(count/(double)n - expected[t]) > tolerance){
+                    throw new IllegalStateException("micSource: P(|z| > "+thresholds[t]+") is "+count/(double)n+" on one side, expected "+expected[t]);
+                }
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "micSource: %d normals, mean %.5f, variance %.5f, tails as expected", n, mean, variance));
+    }
+
+
+    static void checkStepAllocation(){
+        //a tau-leaping step in steady state has to allocate nothing (see StepArena). each system is run until its
+        //buffers have reached their high water mark, then the bytes the thread allocates over windows of steps are
+        //read off ThreadMXBean. growing the biofilm or any of the step's buffers does allocate, so a window in which
+        //the system size or BioSystem.bufferCapacity changed is skipped.
+        //the vector api allocates its vectors until c2 has compiled the rate kernel, which can be some thousands of
+        //steps in, so the check starts at the first window that allocates nothing. from then on every window that
+        //didn't grow anything has to allocate nothing, so a step that allocates now and then still fails. the one
+        //exception is a window the jit recompiled the step around (see jitChangedStep), which is skipped like a
+        //growing one
+        ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported()){
+            System.out.println("stepAllocation: this jvm can't measure allocations, skipped");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        //(det_rate, K*): a high deterioration rate keeps the first system at the surface microhabitat for good. the
+        //second keeps growing, slowly, so its windows are the stretches between new microhabitats, and have migration
+        double[][] systems = {{0.06, 0.95}, {0.04, 0.6}};
+        int window = 500, n_windows = 20, max_warmup_windows = 400;
+        for(UpdateScheme scheme : new UpdateScheme[]{UpdateScheme.TAU_LEAP, UpdateScheme.BINOMIAL_LEAP}){
+            for(double[] system : systems){
+                BioSystem bs = new BioSystem(system[0], system[1], 0.01, scheme, 120, SEED);
+                Stepper.run(bs, 20_000);
+                String params = "scheme="+scheme+",det="+system[0]+",K*="+system[1];
+
+                boolean settled = false;
+                int n_checked = 0, n_windows_run = 0;
+                try(Recording jit = new Recording()){
+                    jit.enable("jdk.Compilation").withoutThreshold();
+                    jit.enable("jdk.Deoptimization").withoutStackTrace();
+                    jit.start();
+                    while(n_checked < n_windows){
+                        if(!settled && n_windows_run == max_warmup_windows){
+                            throw new IllegalStateException("stepAllocation "+params+": still allocating after "+n_windows_run+" windows of "+window+" steps");
+                        }
+                        int size_before = bs.getSystemSize();
+                        long capacity_before = bs.bufferCapacity();
+                        long allocated = Stepper.window(bs, window, threads);
+                        n_windows_run++;
+                        if(bs.getSystemSize() != size_before || bs.bufferCapacity() != capacity_before) continue;
+
+                        if(allocated != 0 && settled){
+                            //one more window, so a compilation the jit queued during this one has started by the time
+                            //the recording's looked at
+                            Stepper.window(bs, window, threads);
+                            n_windows_run++;
+                            if(jitChangedStep(jit)) continue;
+                            throw new IllegalStateException("stepAllocation "+params+": "+allocated+" bytes allocated over "+window
+                                    +" steady-state steps, after "+n_checked+" windows that allocated nothing (system_size="+bs.getSystemSize()+",N="+bs.getTotalN()+")");
+                        }
+                        if(allocated == 0) settled = true;
+                        if(settled) n_checked++;
+                    }
+                }
+                System.out.println("stepAllocation: "+params+",system_size="+bs.getSystemSize()+",N="+bs.getTotalN()
+                        +", nothing allocated over "+n_checked+" windows of "+window+" steps");
+            }
+        }
+    }
+
+
+    private static class Stepper {
+        //the steps are run from here rather than from SelfChecks because when c2 is asked to compile a method, the
+        //thread asking first interns every string literal of the method's class that hasn't been used yet. for
+        //SelfChecks that's all the failure messages, which would land in whichever window the loop got compiled in.
+        //this class has no string literals, so compiling it allocates nothing
+        static void run(BioSystem bs, int n_steps){
+            for(int i = 0; i < n_steps; i++) bs.performAction();
+        }
+
+        static long window(BioSystem bs, int n_steps, ThreadMXBean threads){
+            //runs n_steps, marked out as a StepWindow, and returns the bytes the thread allocated over them
+            StepWindow marker = new StepWindow();
+            marker.begin();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            run(bs, n_steps);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+            marker.commit();
+            return allocated;
+        }
+    }
+
+
+    @Name("SelfChecks.StepWindow")
+    @Label("Step window")
+    @StackTrace(false)
+    private static class StepWindow extends Event {
+        //the span of a window of steps, in the recording jitChangedStep reads
+    }
+
+
+    private static boolean jitChangedStep(Recording jit){
+        //whether c2 compiled anything, or anything the thread was running was deoptimized, between the start of the
+        //window before the last two jit has recorded and the end of the last one. either leaves the thread allocating
+        //for a while though the step hasn't changed: a deoptimized method runs in the interpreter, allocating for
+        //real what c2 had scalar replaced, until it's recompiled, and asking c2 to compile a method interns the
+        //string literals of its class that haven't been used yet (see Stepper)
+        Path dump = null;
+        try{
+            dump = Files.createTempFile("stepAllocation", ".jfr");
+            jit.dump(dump);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+            List<Instant> window_starts = new ArrayList<>();
+            Instant until = Instant.MIN;
+            for(RecordedEvent event : events){
+                if(!event.getEventType().getName().equals("SelfChecks.StepWindow")) continue;
+                window_starts.add(event.getStartTime());
+                if(event.getEndTime().isAfter(until)) until = event.getEndTime();
+            }
+            Collections.sort(window_starts);
+            Instant since = window_starts.size() >= 3 ? window_starts.get(window_starts.size() - 3) : Instant.MIN;
+
+            long thread_id = Thread.currentThread().getId();
+            for(RecordedEvent event : events){
+                if(event.getStartTime().isBefore(since) || event.getStartTime().isAfter(until)) continue;
+                String name = event.getEventType().getName();
+                if(name.equals("jdk.Compilation") && event.getInt("compileLevel") == 4) return true;
+                if(name.equals("jdk.Deoptimization") && event.getThread() != null && event.getThread().getJavaThreadId() == thread_id) return true;
+            }
+            return false;
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }finally{
+            if(dump != null) dump.toFile().delete();
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+class SimulationMetrics implements SimulationMetricsMBean {
+    //instrumentation of the running simulations: steps and events per second, the sampling work thrown away when a
+    //tau-leap step restarts (by what caused it), the distribution of step sizes, how the tau-leap step's time splits
+    //between its phases, and the progress and ETA of each sweep cell.
+    //everything's off until it's enabled, by -Dbiofilm.metrics=true, by startDump, or over jmx. while it's off the hot
+    //path only reads one volatile boolean per step (and per restart). the counters are LongAdders, so the replicate
+    //threads don't contend on them.
+    //-Dbiofilm.metrics.dump=<seconds> also prints a summary that often
+
+    enum Cause {DEATH, MIGRATION, DETACHMENT}
+    enum Phase {SAMPLING, APPLYING_EVENTS, IMMIGRATION, BIOFILM_GROWTH}
+
+    private static volatile boolean enabled = false;
+    static final SimulationMetrics INSTANCE = new SimulationMetrics();
+
+    //step size buckets are powers of 2, from 2^-MAX_STEP_EXPONENT up
+    private static final int MAX_STEP_EXPONENT = 30, N_STEP_BUCKETS = MAX_STEP_EXPONENT + 8;
+
+    private final LongAdder steps = new LongAdder(), events = new LongAdder();
+    private final LongAdder sampled = new LongAdder(), wasted = new LongAdder();
+    private final LongAdder[] restarts = adders(Cause.values().length);
+    private final LongAdder[] step_sizes = adders(N_STEP_BUCKETS);
+    private final LongAdder[] phase_nanos = adders(Phase.values().length);
+    private final ConcurrentSkipListMap<Integer, CellProgress> cells = new ConcurrentSkipListMap<>();
+    private volatile long window_start_nanos = System.nanoTime();
+    private Thread dump_thread;
+
+
+    static {
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("biofilm:type=SimulationMetrics"));
+        }catch(Exception e){
+            System.out.println("couldn't register the metrics mbean: "+e);
+        }
+        if(Boolean.getBoolean("biofilm.metrics")) INSTANCE.setEnabled(true);
+        long dump_seconds = Long.getLong("biofilm.metrics.dump", 0L);
+        if(dump_seconds > 0) startDump(TimeUnit.SECONDS.toMillis(dump_seconds));
+    }
+
+    private SimulationMetrics(){}
+
+
+    static boolean on(){
+        return enabled;
+    }
+
+
+    ////////// the hot path calls these, always behind on() //////////
+
+    static void step(double step_size, long n_events){
+        INSTANCE.steps.increment();
+        INSTANCE.events.add(n_events);
+        int exponent = Math.getExponent(step_size); //floor(log2), without the log
+        INSTANCE.step_sizes[Math.max(0, Math.min(N_STEP_BUCKETS - 1, exponent + MAX_STEP_EXPONENT))].increment();
+    }
+
+    static void sampled(long n_bacteria){
+        INSTANCE.sampled.add(n_bacteria);
+    }
+
+    static void restart(Cause cause, long n_bacteria_wasted){
+        INSTANCE.restarts[cause.ordinal()].increment();
+        INSTANCE.wasted.add(n_bacteria_wasted);
+    }
+
+    static void phase(Phase phase, long nanos){
+        INSTANCE.phase_nanos[phase.ordinal()].add(nanos);
+    }
+
+    static void replicateProgress(int cell, int rep, double fraction){
+        INSTANCE.cells.computeIfAbsent(cell, c -> new CellProgress()).update(rep, Math.min(fraction, 1.));
+    }
+
+    ///////////////////////////////////////////////////////////////////
+
+
+    static synchronized void startDump(long interval_millis){
+        INSTANCE.setEnabled(true);
+        if(INSTANCE.dump_thread != null) return;
+        INSTANCE.dump_thread = new Thread(() -> {
+            while(true){
+                try{
+                    Thread.sleep(interval_millis);
+                }catch(InterruptedException e){
+                    return;
+                }
+                System.out.println(INSTANCE.summary());
+            }
+        }, "metrics-dump");
+        INSTANCE.dump_thread.setDaemon(true);
+        INSTANCE.dump_thread.start();
+    }
+
+
+    String summary(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "metrics: %.1f steps/s, %.1f events/s, %.2f%% of sampling wasted on restarts",
+                getStepsPerSecond(), getEventsPerSecond(), 100.*getWastedSamplingFraction()));
+        sb.append("\n  restarts: ").append(String.join(", ", getRestartsByCause()));
+        sb.append("\n  phases: ").append(String.join(", ", getPhaseTimings()));
+        sb.append("\n  step sizes: ").append(String.join(", ", getStepSizeHistogram()));
+        for(String cell : getCellProgress()) sb.append("\n  ").append(cell);
+        return sb.toString();
+    }
+
+
+    @Override
+    public boolean isEnabled(){return enabled;}
+
+    @Override
+    public void setEnabled(boolean on){
+        if(on && !enabled) reset();
+        enabled = on;
+    }
+
+    @Override
+    public void reset(){
+        for(LongAdder a : new LongAdder[]{steps, events, sampled, wasted}) a.reset();
+        for(LongAdder[] as : new LongAdder[][]{restarts, step_sizes, phase_nanos}){
+            for(LongAdder a : as) a.reset();
+        }
+        cells.clear();
+        window_start_nanos = System.nanoTime();
+    }
+
+
+    @Override
+    public double getStepsPerSecond(){return steps.sum()/elapsedSeconds();}
+    @Override
+    public double getEventsPerSecond(){return events.sum()/elapsedSeconds();}
+    @Override
+    public long getSteps(){return steps.sum();}
+    @Override
+    public long getEvents(){return events.sum();}
+
+    @Override
+    public double getWastedSamplingFraction(){
+        long total = sampled.sum();
+        return total == 0 ? 0. : wasted.sum()/(double)total;
+    }
+
+    @Override
+    public String[] getRestartsByCause(){
+        String[] out = new String[restarts.length];
+        for(Cause c : Cause.values()) out[c.ordinal()] = c+"="+restarts[c.ordinal()].sum();
+        return out;
+    }
+
+    @Override
+    public String[] getStepSizeHistogram(){
+        //only the non-empty buckets, as [lower, upper)=count
+        ArrayList<String> out = new ArrayList<>();
+        for(int b = 0; b < N_STEP_BUCKETS; b++){
+            long n = step_sizes[b].sum();
+            if(n == 0) continue;
+            double lower = Math.scalb(1., b - MAX_STEP_EXPONENT);
+            out.add(String.format(Locale.ROOT, "[%.3g,%.3g)=%d", lower, 2.*lower, n));
+        }
+        return out.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getPhaseTimings(){
+        long total = 0;
+        for(LongAdder a : phase_nanos) total += a.sum();
+        String[] out = new String[phase_nanos.length];
+        for(Phase p : Phase.values()){
+            long nanos = phase_nanos[p.ordinal()].sum();
+            out[p.ordinal()] = String.format(Locale.ROOT, "%s=%.3fs (%.1f%%)", p, nanos*1e-9, total == 0 ? 0. : 100.*nanos/total);
+        }
+        return out;
+    }
+
+    @Override
+    public String[] getCellProgress(){
+        ArrayList<String> out = new ArrayList<>();
+        for(Map.Entry<Integer, CellProgress> e : cells.entrySet()){
+            out.add("cell "+e.getKey()+": "+e.getValue().describe());
+        }
+        return out.toArray(new String[0]);
+    }
+
+
+    private double elapsedSeconds(){
+        return Math.max(System.nanoTime() - window_start_nanos, 1L)*1e-9;
+    }
+
+    private static LongAdder[] adders(int n){
+        LongAdder[] a = new LongAdder[n];
+        for(int i = 0; i < n; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+
+    private static class CellProgress {
+        //the progress of a cell is the mean of its started replicates' (simulated time)/(duration), and the ETA assumes
+        //the rest goes at the rate it's gone so far
+        private final long start_nanos = System.nanoTime();
+        private double[] fractions = new double[16];
+        private int n_reps = 0;
+
+        synchronized void update(int rep, double fraction){
+            if(rep >= fractions.length) fractions = Arrays.copyOf(fractions, Math.max(2*fractions.length, rep + 1));
+            n_reps = Math.max(n_reps, rep + 1);
+            fractions[rep] = fraction;
+        }
+
+        synchronized String describe(){
+            double progress = 0.;
+            int n_done = 0;
+            for(int r = 0; r < n_reps; r++){
+                progress += fractions[r]/n_reps;
+                if(fractions[r] >= 1.) n_done++;
+            }
+            if(n_done == n_reps) return String.format(Locale.ROOT, "done, %d replicates", n_reps);
+            long elapsed = System.nanoTime() - start_nanos;
+            String eta = progress > 0. ? Toolbox.millisToShortDHMS((long)(1e-6*elapsed*(1. - progress)/progress)) : "?";
+            return String.format(Locale.ROOT, "%.1f%% of %d replicates (%d done), eta %s", 100.*progress, n_reps, n_done, eta);
+        }
+    }
+
+}
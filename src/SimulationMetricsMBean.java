@@ -0,0 +1,19 @@
+public interface SimulationMetricsMBean {
+    //what SimulationMetrics shows over jmx (e.g. in jconsole, under biofilm:type=SimulationMetrics).
+    //the rates are since the metrics were last enabled or reset
+
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+    void reset();
+
+    double getStepsPerSecond();
+    double getEventsPerSecond();
+    long getSteps();
+    long getEvents();
+
+    double getWastedSamplingFraction(); //share of bacteria sampled in passes that were thrown away on a restart
+    String[] getRestartsByCause();
+    String[] getStepSizeHistogram();
+    String[] getPhaseTimings();
+    String[] getCellProgress();
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+class StepArena {
+    //the event buffers of a BioSystem's tau-leaping steps, kept from step to step rather than allocated afresh on
+    //every step and every tau-halving retry. they only grow, when the system or a microhabitat's population outgrows
+    //them, so once a run's reached its high water mark a step allocates nothing.
+    //a buffer is handed out cleared up to the length asked for, as a fresh array would be; anything past that is
+    //left over from earlier steps
+
+    int[][] replications = new int[0][], deaths = new int[0][], migrations = new int[0][];
+    int[] original_popsizes = new int[0];
+    int[] detachments = new int[0];
+    boolean[] leaving = new boolean[0];
+
+
+    long capacity(){
+        //the total length of the buffers, which only changes when one grows
+        long capacity = original_popsizes.length + detachments.length + leaving.length;
+        for(int m = 0; m < replications.length; m++) capacity += replications[m].length + deaths[m].length + migrations[m].length;
+        return capacity;
+    }
+
+    void beginStep(int system_size){
+        //makes room for system_size microhabitats
+        if(replications.length >= system_size) return;
+        int old_length = replications.length, length = Math.max(system_size, 2*old_length);
+        replications = Arrays.copyOf(replications, length);
+        deaths = Arrays.copyOf(deaths, length);
+        migrations = Arrays.copyOf(migrations, length);
+        original_popsizes = Arrays.copyOf(original_popsizes, length);
+        for(int m = old_length; m < length; m++){
+            replications[m] = new int[16];
+            deaths[m] = new int[16];
+            migrations[m] = new int[16];
+        }
+    }
+
+    void beginMicrohabitat(int mh_index, int mh_pop){
+        //clears (or grows) the replication, death and migration buffers of mh_index for its first mh_pop bacteria
+        if(replications[mh_index].length < mh_pop){
+            int length = Math.max(mh_pop, 2*replications[mh_index].length);
+            replications[mh_index] = new int[length];
+            deaths[mh_index] = new int[length];
+            migrations[mh_index] = new int[length];
+            return;
+        }
+        Arrays.fill(replications[mh_index], 0, mh_pop, 0);
+        Arrays.fill(deaths[mh_index], 0, mh_pop, 0);
+        Arrays.fill(migrations[mh_index], 0, mh_pop, 0);
+    }
+
+    int[] detachments(int n){
+        if(detachments.length < n) detachments = new int[Math.max(n, 2*detachments.length)];
+        else Arrays.fill(detachments, 0, n, 0);
+        return detachments;
+    }
+
+    boolean[] leaving(int n){
+        if(leaving.length < n) leaving = new boolean[Math.max(n, 2*leaving.length)];
+        else Arrays.fill(leaving, 0, n, false);
+        return leaving;
+    }
+
+}
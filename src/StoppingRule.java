@@ -0,0 +1,85 @@
+import org.apache.commons.math3.distribution.TDistribution;
+
+class StoppingRule {
+    //decides how many replicates a sweep cell gets. a fixed rule always runs the same number. a confidence interval rule
+    //runs min_reps, then keeps adding replicates until the confidence interval of the mean of the target field
+    //(thickness or exit time, see DataboxAccumulator) is narrower than tolerance either side, or max_reps is reached.
+    //cells far from the growth/no-growth transition have next to no spread and stop at min_reps, the ones on it get the
+    //replicates.
+    //more replicates are added in batches, sized by how many the current st dev says are needed, so a cell doesn't
+    //trickle out one replicate at a time. the decision's only made once every replicate launched so far has finished,
+    //so the number of replicates a cell ends up with doesn't depend on thread scheduling
+
+    private final int field;
+    private final double tolerance, confidence;
+    private final int min_reps, max_reps;
+
+
+    private StoppingRule(int field, double tolerance, double confidence, int min_reps, int max_reps){
+        if(min_reps < 2 && min_reps != max_reps) throw new IllegalArgumentException("an adaptive rule needs at least 2 replicates to estimate a st dev");
+        if(max_reps < min_reps) throw new IllegalArgumentException("max_reps ("+max_reps+") is less than min_reps ("+min_reps+")");
+        this.field = field;
+        this.tolerance = tolerance;
+        this.confidence = confidence;
+        this.min_reps = min_reps;
+        this.max_reps = max_reps;
+    }
+
+
+    static StoppingRule fixed(int n_reps){
+        return new StoppingRule(DataboxAccumulator.THICKNESS, 0., 0.95, n_reps, n_reps);
+    }
+
+    static StoppingRule confidenceInterval(int field, double tolerance, int min_reps, int max_reps){
+        return confidenceInterval(field, tolerance, 0.95, min_reps, max_reps);
+    }
+
+    static StoppingRule confidenceInterval(int field, double tolerance, double confidence, int min_reps, int max_reps){
+        return new StoppingRule(field, tolerance, confidence, min_reps, max_reps);
+    }
+
+
+    int getMin_reps(){return min_reps;}
+    int getMax_reps(){return max_reps;}
+
+    boolean isFixed(){
+        return min_reps == max_reps;
+    }
+
+
+    String label(){
+        //goes in the filename of an adaptive sweep, so its output and checkpoints don't get mixed up with a fixed one's
+        if(isFixed()) return "";
+        String field_name = field == DataboxAccumulator.EXIT_TIME ? "exit_time" : field == DataboxAccumulator.THICKNESS ? "thickness" : "field"+field;
+        return String.format("-adaptive(%s,tol=%.3f,reps=%d-%d)", field_name, tolerance, min_reps, max_reps);
+    }
+
+
+    int additionalReplicates(DataboxAccumulator accumulator){
+        //how many more replicates the cell should run, given every replicate so far is in the accumulator. 0 means stop
+        int n = (int)accumulator.getN();
+        if(n < min_reps) return min_reps - n;
+        if(n >= max_reps) return 0;
+
+        double half_width = halfWidth(accumulator.stDev(field), n);
+        if(!(half_width > tolerance)) return 0; //also stops on a NaN st dev
+
+        //the n that would give the tolerance if the st dev holds, using the t quantile for the current n
+        double t = tQuantile(n);
+        double sd = accumulator.stDev(field);
+        double n_needed = Math.ceil((t*sd/tolerance)*(t*sd/tolerance));
+        int more = (int)Math.min(Math.max(n_needed - n, 1.), max_reps - n);
+        return more;
+    }
+
+
+    private double halfWidth(double st_dev, int n){
+        return tQuantile(n)*st_dev/Math.sqrt(n);
+    }
+
+    private double tQuantile(int n){
+        //the rng argument's only used for sampling, which this never does
+        return new TDistribution(null, n - 1.).inverseCumulativeProbability(0.5 + 0.5*confidence);
+    }
+
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+class SweepCheckpoint {
+    //lets a sweep that dies part way through pick up where it left off.
+    //the directory holds a manifest (the sweep's name, its master seed, and the averaged result of every completed cell),
+    //the results of finished replicates of incomplete cells, and binary snapshots of the replicates still running.
+    //a restarted sweep skips the completed cells, reuses the finished replicates, and resumes the rest from their
+    //last snapshot. everything's written to a temporary file and moved into place, so a crash mid-write can't
+    //leave a half-written snapshot behind.
+    //a sweep that's run to the end is marked complete, and running it again without asking for its seed starts a new
+    //sweep (with a new seed) in its place instead of handing back the old results
+
+    private static final String MANIFEST = "manifest.txt";
+    private static final String COMPLETE = "#complete";
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 5*60*1000L;
+
+    private final File directory;
+    private final long master_seed;
+    private final boolean resumed;
+    private final long snapshot_interval_millis;
+    private final HashMap<Integer, Databox> completed_cells = new HashMap<>();
+
+
+    static class Snapshot {
+        final BioSystem system;
+        final double elapsed_millis; //wall clock time the replicate had run for when the snapshot was taken
+
+        Snapshot(BioSystem system, double elapsed_millis){
+            this.system = system;
+            this.elapsed_millis = elapsed_millis;
+        }
+    }
+
+
+    SweepCheckpoint(File directory, String sweep_name, Long requested_seed, long fallback_seed){
+        this(directory, sweep_name, requested_seed, fallback_seed, DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+    }
+
+    SweepCheckpoint(File directory, String sweep_name, Long requested_seed, long fallback_seed, long snapshot_interval_millis){
+        //requested_seed is null if the caller didn't ask for a particular seed, in which case an unfinished sweep's
+        //seed is reused (or fallback_seed for a new sweep). asking for a different seed to that of an unfinished sweep
+        //on disk is an error
+        this.directory = directory;
+        this.snapshot_interval_millis = snapshot_interval_millis;
+        if(!directory.exists()) directory.mkdirs();
+
+        File manifest = new File(directory, MANIFEST);
+        Long saved_seed = null;
+        boolean complete = false;
+        if(manifest.exists()){
+            try(BufferedReader br = new BufferedReader(new FileReader(manifest))){
+                String line;
+                while((line = br.readLine()) != null){
+                    String[] parts = line.trim().split("\\s+");
+                    try{
+                        if(parts[0].equals("#master_seed")) saved_seed = Long.parseLong(parts[1]);
+                        else if(parts[0].equals(COMPLETE)) complete = true;
+                        else if(parts[0].equals("cell")){
+                            //the checksum catches a line cut off where what's left still parses
+                            String body = checkedLine(line.trim());
+                            if(body == null) continue;
+                            parts = body.split("\\s+");
+                            completed_cells.put(Integer.parseInt(parts[1]), Databox.fromArray(parseValues(parts, 2)));
+                        }
+                    }catch(RuntimeException e){
+                        //a line cut off by the crash, the cell will just be rerun
+                    }
+                }
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if(complete && (requested_seed == null || !requested_seed.equals(saved_seed))){
+            //the sweep on disk finished, this is a new one
+            deleteContents(directory);
+            completed_cells.clear();
+            saved_seed = null;
+        }
+        if(saved_seed != null && requested_seed != null && !saved_seed.equals(requested_seed)){
+            throw new IllegalStateException("checkpoint in "+directory+" is for master seed "+saved_seed+", not "+requested_seed);
+        }
+        this.master_seed = saved_seed != null ? saved_seed : (requested_seed != null ? requested_seed : fallback_seed);
+        this.resumed = saved_seed != null;
+
+        if(saved_seed == null){
+            try(BufferedWriter bw = new BufferedWriter(new FileWriter(manifest))){
+                bw.write("#sweep "+sweep_name);
+                bw.newLine();
+                bw.write("#master_seed "+master_seed);
+                bw.newLine();
+            }catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+
+    long getMaster_seed(){return master_seed;}
+
+    boolean isResumed(){
+        //whether this carries on a sweep that was already on disk, rather than starting one
+        return resumed;
+    }
+
+    boolean isCellComplete(int cell){
+        return completed_cells.containsKey(cell);
+    }
+
+    Databox getCompletedCell(int cell){
+        return completed_cells.get(cell);
+    }
+
+
+    synchronized void recordCompletedCell(int cell, Databox averaged, int n_reps){
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File(directory, MANIFEST), true))){
+            bw.write(withChecksum("cell "+cell+" "+formatValues(averaged.allDataInAnArray())));
+            bw.newLine();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        completed_cells.put(cell, averaged);
+
+        for(int rep = 0; rep < n_reps; rep++){
+            new File(directory, replicateName(cell, rep)+".done").delete();
+            new File(directory, replicateName(cell, rep)+".snapshot").delete();
+        }
+    }
+
+
+    synchronized void markComplete(){
+        //called once every cell's been recorded
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File(directory, MANIFEST), true))){
+            bw.write(COMPLETE);
+            bw.newLine();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    Databox finishedReplicate(int cell, int rep){
+        File file = new File(directory, replicateName(cell, rep)+".done");
+        if(!file.exists()) return null;
+        try(BufferedReader br = new BufferedReader(new FileReader(file))){
+            return Databox.fromArray(parseValues(br.readLine().trim().split("\\s+"), 0));
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void recordFinishedReplicate(int cell, int rep, Databox db){
+        File file = new File(directory, replicateName(cell, rep)+".done");
+        File temp = new File(directory, replicateName(cell, rep)+".done.tmp");
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(temp))){
+            bw.write(formatValues(db.allDataInAnArray()));
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        moveIntoPlace(temp, file);
+        new File(directory, replicateName(cell, rep)+".snapshot").delete();
+    }
+
+
+    boolean snapshotDue(long last_snapshot_millis){
+        return System.currentTimeMillis() - last_snapshot_millis >= snapshot_interval_millis;
+    }
+
+    void saveSnapshot(int cell, int rep, BioSystem bs, double elapsed_millis){
+        File file = new File(directory, replicateName(cell, rep)+".snapshot");
+        File temp = new File(directory, replicateName(cell, rep)+".snapshot.tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+            out.writeDouble(elapsed_millis);
+            bs.writeSnapshot(out);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        moveIntoPlace(temp, file);
+    }
+
+    Snapshot loadSnapshot(int cell, int rep){
+        File file = new File(directory, replicateName(cell, rep)+".snapshot");
+        if(!file.exists()) return null;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            double elapsed_millis = in.readDouble();
+            return new Snapshot(BioSystem.readSnapshot(in), elapsed_millis);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private static String replicateName(int cell, int rep){
+        return "cell-"+cell+"-rep-"+rep;
+    }
+
+    private static void deleteContents(File directory){
+        File[] files = directory.listFiles();
+        if(files == null) return;
+        for(File file : files){
+            if(file.isDirectory()) deleteContents(file);
+            file.delete();
+        }
+    }
+
+    static void moveIntoPlace(File temp, File file){
+        try{
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String withChecksum(String line){
+        //the line with the crc32 of its text on the end
+        return line+" "+checksum(line);
+    }
+
+    private static String checkedLine(String line){
+        //the line less its checksum, or null if the checksum's missing or doesn't match
+        int space = line.lastIndexOf(' ');
+        if(space < 0) return null;
+        String body = line.substring(0, space);
+        return line.substring(space + 1).equals(checksum(body)) ? body : null;
+    }
+
+    private static String checksum(String text){
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    static String formatValues(double[] vals){
+        //Double.toString round-trips exactly
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < vals.length; i++){
+            if(i > 0) sb.append(' ');
+            sb.append(vals[i]);
+        }
+        return sb.toString();
+    }
+
+    static double[] parseValues(String[] parts, int offset){
+        double[] vals = new double[parts.length - offset];
+        for(int i = 0; i < vals.length; i++) vals[i] = Double.parseDouble(parts[offset + i]);
+        return vals;
+    }
+
+}
@@ -0,0 +1,320 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+class SweepCoordinator implements AutoCloseable {
+    //runs a sweep's replicates on SweepWorkers in other jvms (on this machine or others) instead of on a local pool.
+    //every worker connection asks for a unit of work (a cell and replicate), runs it, and sends the replicate's databox
+    //back. a unit handed out is leased to that connection: the worker heartbeats it while it's running, and if the
+    //connection drops or the heartbeats stop for lease_millis the unit goes back on the queue for someone else.
+    //a late result for a unit that's since been finished elsewhere is just ignored (the results are identical anyway,
+    //as every replicate's seeded from the master seed, its cell and its rep).
+    //the results are folded into the cells in replicate order and the stopping rule applied exactly as in
+    //SweepExecutor, so a distributed sweep gives the same output as a local one.
+    //
+    //the protocol's DataOutputStream messages, each starting with an int type (see SweepJob):
+    //  on connecting, coordinator -> worker  JOB <SweepJob>
+    //  worker -> coordinator  REQUEST | HEARTBEAT <unit> <rep> | RESULT <unit> <rep> <databox>
+    //  coordinator -> worker  (in reply to REQUEST)  UNIT <unit> <cell> <rep> | WAIT <millis> | DONE
+
+    private static final long DEFAULT_LEASE_MILLIS = 60_000L;
+    private static final int WAIT_MILLIS = 500;
+
+    private final ServerSocket server;
+    private final SweepJob job;
+    private final long lease_millis;
+    private final Thread accept_thread, reaper_thread;
+    private final ArrayList<Socket> connections = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    //the current run's state, all guarded by this
+    private int[] cell_ids;
+    private StoppingRule rule;
+    private SweepCheckpoint checkpoint;
+    private SweepExecutor.CellListener listener;
+    private SweepExecutor.CellAccumulator[] accumulators;
+    private Databox[] cell_results;
+    private int cells_remaining = 0;
+    private final ArrayDeque<long[]> queue = new ArrayDeque<>(); //{unit, rep}
+    private final HashMap<Long, Lease> leases = new HashMap<>();
+    private final HashSet<Long> finished = new HashSet<>();
+    private Throwable failure = null;
+
+
+    private static class Lease {
+        final Object holder; //the connection's handler
+        long expiry_millis;
+
+        Lease(Object holder, long expiry_millis){
+            this.holder = holder;
+            this.expiry_millis = expiry_millis;
+        }
+    }
+
+
+    SweepCoordinator(int port, SweepJob job){
+        this(port, job, DEFAULT_LEASE_MILLIS);
+    }
+
+    SweepCoordinator(int port, SweepJob job, long lease_millis){
+        this.job = job;
+        this.lease_millis = lease_millis;
+        try{
+            this.server = new ServerSocket(port);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        accept_thread = new Thread(this::acceptLoop, "coordinator-accept");
+        accept_thread.setDaemon(true);
+        accept_thread.start();
+        reaper_thread = new Thread(this::reapLoop, "coordinator-leases");
+        reaper_thread.setDaemon(true);
+        reaper_thread.start();
+        System.out.println("coordinator listening on port "+getPort());
+    }
+
+
+    int getPort(){return server.getLocalPort();}
+
+
+    Databox[] run(int[] cell_ids, StoppingRule rule, SweepCheckpoint checkpoint, SweepExecutor.CellListener listener){
+        //runs the given cells (indices into the job's grid) and returns their averaged databoxes in the same order.
+        //checkpoint may be null, otherwise each finished replicate's recorded in it and any already there are reused.
+        //the listener gets the position in cell_ids, not the cell id
+        synchronized(this){
+            this.cell_ids = cell_ids;
+            this.rule = rule;
+            this.checkpoint = checkpoint;
+            this.listener = listener;
+            this.accumulators = new SweepExecutor.CellAccumulator[cell_ids.length];
+            this.cell_results = new Databox[cell_ids.length];
+            this.cells_remaining = cell_ids.length;
+            this.failure = null;
+            queue.clear();
+            leases.clear();
+            finished.clear();
+            for(int unit = 0; unit < cell_ids.length; unit++){
+                accumulators[unit] = new SweepExecutor.CellAccumulator(rule.getMin_reps());
+                for(int rep = 0; rep < rule.getMin_reps(); rep++) queue.add(new long[]{unit, rep});
+            }
+            if(checkpoint != null) takeFinishedFromCheckpoint();
+
+            while(cells_remaining > 0 && failure == null){
+                try{
+                    wait();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while waiting for the sweep", e);
+                }
+            }
+            if(failure != null) throw new RuntimeException("distributed sweep failed", failure);
+            return cell_results;
+        }
+    }
+
+
+    private void takeFinishedFromCheckpoint(){
+        //replicates finished before a restart are folded straight in. that can launch more replicates, which are
+        //checked for in turn
+        ArrayDeque<long[]> to_check = new ArrayDeque<>(queue);
+        queue.clear();
+        while(!to_check.isEmpty()){
+            long[] u = to_check.poll();
+            Databox db = checkpoint.finishedReplicate(cell_ids[(int)u[0]], (int)u[1]);
+            if(db == null){
+                queue.add(u);
+                continue;
+            }
+            int queued = queue.size();
+            resultIn((int)u[0], (int)u[1], db, false);
+            while(queue.size() > queued) to_check.add(queue.pollLast());
+        }
+    }
+
+
+    @Override
+    public void close(){
+        closed = true;
+        try{
+            server.close();
+        }catch(IOException e){
+            //nothing to do, it's going anyway
+        }
+        synchronized(connections){
+            for(Socket s : connections){
+                try{
+                    s.close();
+                }catch(IOException e){
+                    //as above
+                }
+            }
+        }
+        reaper_thread.interrupt();
+    }
+
+
+    private void acceptLoop(){
+        while(!closed){
+            try{
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                synchronized(connections){
+                    connections.add(socket);
+                }
+                Thread handler = new Thread(() -> handle(socket), "coordinator-"+socket.getRemoteSocketAddress());
+                handler.setDaemon(true);
+                handler.start();
+            }catch(IOException e){
+                if(!closed) System.out.println("coordinator couldn't accept a connection: "+e);
+            }
+        }
+    }
+
+
+    private void handle(Socket socket){
+        Object holder = new Object();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))){
+
+            out.writeInt(SweepJob.MSG_JOB);
+            job.write(out);
+            out.flush();
+
+            while(true){
+                int type = in.readInt();
+                if(type == SweepJob.MSG_REQUEST){
+                    long[] unit = nextUnit(holder);
+                    if(unit == null){
+                        out.writeInt(SweepJob.MSG_DONE);
+                        out.flush();
+                        return;
+                    }else if(unit.length == 0){
+                        out.writeInt(SweepJob.MSG_WAIT);
+                        out.writeInt(WAIT_MILLIS);
+                    }else{
+                        out.writeInt(SweepJob.MSG_UNIT);
+                        out.writeInt((int)unit[0]);
+                        out.writeInt(cell_ids[(int)unit[0]]);
+                        out.writeInt((int)unit[1]);
+                    }
+                    out.flush();
+                }else if(type == SweepJob.MSG_HEARTBEAT){
+                    renew(holder, in.readInt(), in.readInt());
+                }else if(type == SweepJob.MSG_RESULT){
+                    int unit = in.readInt(), rep = in.readInt();
+                    Databox db = SweepJob.readDatabox(in);
+                    synchronized(this){
+                        if(leases.remove(key(unit, rep)) != null || queue.removeIf(u -> u[0] == unit && u[1] == rep)){
+                            resultIn(unit, rep, db, true);
+                        }
+                    }
+                }else{
+                    throw new IOException("unknown message type "+type);
+                }
+            }
+        }catch(EOFException | SocketException e){
+            //the worker's gone (or we're closing)
+        }catch(IOException | RuntimeException e){
+            if(!closed) System.out.println("dropping worker "+socket.getRemoteSocketAddress()+": "+e);
+        }finally{
+            releaseLeases(holder);
+            synchronized(connections){
+                connections.remove(socket);
+            }
+            try{
+                socket.close();
+            }catch(IOException e){
+                //already gone
+            }
+        }
+    }
+
+
+    private synchronized long[] nextUnit(Object holder){
+        //the next unit to lease, an empty array if there's nothing now but the sweep's not done, null once it's done
+        if(accumulators == null) return new long[0]; //run hasn't been called yet
+        if(cells_remaining == 0) return null;
+        long[] unit = queue.poll();
+        if(unit == null) return new long[0];
+        leases.put(key((int)unit[0], (int)unit[1]), new Lease(holder, System.currentTimeMillis() + lease_millis));
+        return unit;
+    }
+
+    private synchronized void renew(Object holder, int unit, int rep){
+        Lease lease = leases.get(key(unit, rep));
+        if(lease != null && lease.holder == holder) lease.expiry_millis = System.currentTimeMillis() + lease_millis;
+    }
+
+    private synchronized void releaseLeases(Object holder){
+        //a lost connection's units go to the front of the queue
+        for(Iterator<Map.Entry<Long, Lease>> it = leases.entrySet().iterator(); it.hasNext(); ){
+            Map.Entry<Long, Lease> e = it.next();
+            if(e.getValue().holder != holder) continue;
+            it.remove();
+            queue.addFirst(new long[]{e.getKey() >>> 32, e.getKey() & 0xffffffffL});
+        }
+    }
+
+
+    private void reapLoop(){
+        while(!closed){
+            try{
+                Thread.sleep(Math.max(lease_millis/4, 10L));
+            }catch(InterruptedException e){
+                return;
+            }
+            synchronized(this){
+                long now = System.currentTimeMillis();
+                for(Iterator<Map.Entry<Long, Lease>> it = leases.entrySet().iterator(); it.hasNext(); ){
+                    Map.Entry<Long, Lease> e = it.next();
+                    if(e.getValue().expiry_millis > now) continue;
+                    it.remove();
+                    queue.addFirst(new long[]{e.getKey() >>> 32, e.getKey() & 0xffffffffL});
+                    System.out.println("lease on cell "+cell_ids[(int)(e.getKey() >>> 32)]+" rep "+(e.getKey() & 0xffffffffL)+" expired, reassigning it");
+                }
+            }
+        }
+    }
+
+
+    private void resultIn(int unit, int rep, Databox db, boolean record){
+        //called holding this
+        if(!finished.add(key(unit, rep))) return;
+        try{
+            if(record && checkpoint != null) checkpoint.recordFinishedReplicate(cell_ids[unit], rep, db);
+            int[] more = accumulators[unit].add(rep, db, rule);
+            if(accumulators[unit].isDone()){
+                cell_results[unit] = accumulators[unit].averaged();
+                accumulators[unit] = null;
+                cells_remaining--;
+                if(listener != null) listener.cellCompleted(unit, cell_results[unit]);
+                notifyAll();
+            }else if(more != null){
+                for(int r = more[0]; r < more[1]; r++) queue.add(new long[]{unit, r});
+            }
+        }catch(RuntimeException e){
+            failure = e;
+            notifyAll();
+        }
+    }
+
+
+    private static long key(int unit, int rep){
+        return ((long)unit << 32) | (rep & 0xffffffffL);
+    }
+
+}
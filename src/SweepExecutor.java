@@ -0,0 +1,316 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+class SweepExecutor {
+    //runs a whole parameter sweep as one flat set of (cell, replicate) tasks on a work-stealing pool, instead of
+    //running the cells one after another with only the replicates of a cell in parallel.
+    //replicate runtimes vary hugely (some hit the thickness limit early, some run the full duration), so this way no
+    //core sits idle waiting on the slowest replicate of a cell. each cell is reduced as soon as its last replicate is in
+
+    interface Replicate {
+        Databox run(int cell, int rep);
+    }
+
+    interface ReplicateBatch {
+        //the databoxes of the given replicates of cell, in the same order
+        Databox[] run(int cell, int[] reps);
+    }
+
+    interface CellListener {
+        void cellCompleted(int cell, Databox averaged);
+    }
+
+
+    private final ForkJoinPool pool;
+
+
+    SweepExecutor(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    SweepExecutor(int parallelism){
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+
+    Databox[] run(int n_cells, int n_reps, Replicate replicate){
+        return run(n_cells, StoppingRule.fixed(n_reps), replicate, null);
+    }
+
+    Databox[] run(int n_cells, int n_reps, Replicate replicate, CellListener listener){
+        return run(n_cells, StoppingRule.fixed(n_reps), replicate, listener);
+    }
+
+    Databox[] run(int n_cells, StoppingRule rule, Replicate replicate, CellListener listener){
+        //returns the averaged databox of each cell, in cell order.
+        //every cell's first rule.getMin_reps() replicates go onto the pool as one flat range. replicates are folded into
+        //their cell's accumulator as they finish, always in replicate order (one that finishes early waits in pending),
+        //so the averages don't depend on thread scheduling. once everything a cell has launched is in, the rule decides
+        //whether it's done or launches more replicates for it
+        Databox[] cell_results = new Databox[n_cells];
+        if(n_cells == 0 || rule.getMax_reps() == 0) return cell_results;
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch cells_remaining = new CountDownLatch(n_cells);
+        CellAccumulator[] accumulators = new CellAccumulator[n_cells];
+        int min_reps = rule.getMin_reps();
+
+        ReplicateBody body = new ReplicateBody(){
+            @Override
+            public void run(int cell, int rep){
+                if(failure.get() != null) return;
+                try{
+                    CellAccumulator acc = accumulators[cell];
+                    int[] new_reps = acc.add(rep, replicate.run(cell, rep), rule);
+                    if(acc.isDone()){
+                        cell_results[cell] = acc.averaged();
+                        accumulators[cell] = null;
+                        if(listener != null) listener.cellCompleted(cell, cell_results[cell]);
+                        cells_remaining.countDown();
+                    }else if(new_reps != null){
+                        pool.execute(new ReplicateRange(new_reps[0], new_reps[1], i -> this.run(cell, i)));
+                    }
+                }catch(Throwable t){
+                    failure.compareAndSet(null, t);
+                    while(cells_remaining.getCount() > 0) cells_remaining.countDown();
+                }
+            }
+        };
+
+        for(int cell = 0; cell < n_cells; cell++) accumulators[cell] = new CellAccumulator(min_reps);
+        pool.execute(new ReplicateRange(0, n_cells*min_reps, i -> body.run(i/min_reps, i%min_reps)));
+
+        try{
+            cells_remaining.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the sweep", e);
+        }
+        if(failure.get() != null) throw new RuntimeException("sweep replicate failed", failure.get());
+        return cell_results;
+    }
+
+
+    Databox[] runResumable(int n_cells, int n_reps, Replicate replicate, SweepCheckpoint checkpoint){
+        return runResumable(n_cells, StoppingRule.fixed(n_reps), replicate, checkpoint, null);
+    }
+
+    Databox[] runResumable(int n_cells, int n_reps, Replicate replicate, SweepCheckpoint checkpoint, CellListener listener){
+        return runResumable(n_cells, StoppingRule.fixed(n_reps), replicate, checkpoint, listener);
+    }
+
+    Databox[] runResumable(int n_cells, StoppingRule rule, Replicate replicate, SweepCheckpoint checkpoint, CellListener listener){
+        //as run, but cells already completed in the checkpoint are taken from it rather than rerun, as are finished
+        //replicates of incomplete cells. newly finished replicates and cells are recorded in the checkpoint.
+        //the listener hears about every cell, including the ones taken from the checkpoint (which it gets first)
+        Databox[] cell_results = new Databox[n_cells];
+        int[] remaining_cells = completedFromCheckpoint(n_cells, checkpoint, listener, cell_results);
+        int n_remaining = remaining_cells.length;
+
+        Databox[] remaining_results = run(n_remaining, rule, (k, rep) -> {
+            int cell = remaining_cells[k];
+            Databox finished = checkpoint.finishedReplicate(cell, rep);
+            if(finished != null) return finished;
+            Databox db = replicate.run(cell, rep);
+            checkpoint.recordFinishedReplicate(cell, rep, db);
+            return db;
+        }, (k, averaged) -> {
+            checkpoint.recordCompletedCell(remaining_cells[k], averaged, averaged.getN_replicates());
+            if(listener != null) listener.cellCompleted(remaining_cells[k], averaged);
+        });
+
+        for(int k = 0; k < n_remaining; k++) cell_results[remaining_cells[k]] = remaining_results[k];
+        return cell_results;
+    }
+
+
+    Databox[] runBatched(int n_cells, StoppingRule rule, ReplicateBatch batch, CellListener listener){
+        //as run, but each launch of a cell's replicates (its first rule.getMin_reps(), then each lot the rule adds) is
+        //one task, handed to batch whole so it can run them together (see EnsembleEngine). the cells are spread over
+        //the pool and folded in replicate order as in run, so given the same replicates the results are the same
+        Databox[] cell_results = new Databox[n_cells];
+        if(n_cells == 0 || rule.getMax_reps() == 0) return cell_results;
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch cells_remaining = new CountDownLatch(n_cells);
+        CellAccumulator[] accumulators = new CellAccumulator[n_cells];
+        int min_reps = rule.getMin_reps();
+
+        BatchBody body = new BatchBody(){
+            @Override
+            public void run(int cell, int first, int end){
+                if(failure.get() != null) return;
+                try{
+                    int[] reps = new int[end - first];
+                    for(int k = 0; k < reps.length; k++) reps[k] = first + k;
+                    Databox[] results = batch.run(cell, reps);
+
+                    CellAccumulator acc = accumulators[cell];
+                    int[] new_reps = null;
+                    for(int k = 0; k < reps.length; k++) new_reps = acc.add(reps[k], results[k], rule);
+                    if(acc.isDone()){
+                        cell_results[cell] = acc.averaged();
+                        accumulators[cell] = null;
+                        if(listener != null) listener.cellCompleted(cell, cell_results[cell]);
+                        cells_remaining.countDown();
+                    }else if(new_reps != null){
+                        int[] launch = new_reps;
+                        pool.execute(() -> this.run(cell, launch[0], launch[1]));
+                    }
+                }catch(Throwable t){
+                    failure.compareAndSet(null, t);
+                    while(cells_remaining.getCount() > 0) cells_remaining.countDown();
+                }
+            }
+        };
+
+        for(int cell = 0; cell < n_cells; cell++) accumulators[cell] = new CellAccumulator(min_reps);
+        pool.execute(new ReplicateRange(0, n_cells, cell -> body.run(cell, 0, min_reps)));
+
+        try{
+            cells_remaining.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the sweep", e);
+        }
+        if(failure.get() != null) throw new RuntimeException("sweep replicate failed", failure.get());
+        return cell_results;
+    }
+
+
+    Databox[] runBatchedResumable(int n_cells, StoppingRule rule, ReplicateBatch batch, SweepCheckpoint checkpoint, CellListener listener){
+        //runBatched with the checkpointing of runResumable. only the replicates of a batch that aren't already in the
+        //checkpoint are passed on to batch
+        Databox[] cell_results = new Databox[n_cells];
+        int[] remaining_cells = completedFromCheckpoint(n_cells, checkpoint, listener, cell_results);
+        int n_remaining = remaining_cells.length;
+
+        Databox[] remaining_results = runBatched(n_remaining, rule, (k, reps) -> {
+            int cell = remaining_cells[k];
+            Databox[] results = new Databox[reps.length];
+            int[] to_run = new int[reps.length];
+            int n_to_run = 0;
+            for(int j = 0; j < reps.length; j++){
+                results[j] = checkpoint.finishedReplicate(cell, reps[j]);
+                if(results[j] == null) to_run[n_to_run++] = j;
+            }
+            if(n_to_run == 0) return results;
+
+            int[] run_reps = new int[n_to_run];
+            for(int j = 0; j < n_to_run; j++) run_reps[j] = reps[to_run[j]];
+            Databox[] ran = batch.run(cell, run_reps);
+            for(int j = 0; j < n_to_run; j++){
+                checkpoint.recordFinishedReplicate(cell, run_reps[j], ran[j]);
+                results[to_run[j]] = ran[j];
+            }
+            return results;
+        }, (k, averaged) -> {
+            checkpoint.recordCompletedCell(remaining_cells[k], averaged, averaged.getN_replicates());
+            if(listener != null) listener.cellCompleted(remaining_cells[k], averaged);
+        });
+
+        for(int k = 0; k < n_remaining; k++) cell_results[remaining_cells[k]] = remaining_results[k];
+        return cell_results;
+    }
+
+
+    private static int[] completedFromCheckpoint(int n_cells, SweepCheckpoint checkpoint, CellListener listener, Databox[] cell_results){
+        //fills in the cells the checkpoint has as complete (telling the listener), returns the rest
+        int[] remaining_cells = new int[n_cells];
+        int n_remaining = 0;
+        for(int cell = 0; cell < n_cells; cell++){
+            if(checkpoint.isCellComplete(cell)){
+                cell_results[cell] = checkpoint.getCompletedCell(cell);
+                if(listener != null) listener.cellCompleted(cell, cell_results[cell]);
+            }
+            else remaining_cells[n_remaining++] = cell;
+        }
+        return Arrays.copyOf(remaining_cells, n_remaining);
+    }
+
+
+    void shutdown(){
+        pool.shutdown();
+    }
+
+
+    static class CellAccumulator {
+        //a cell's replicates, folded in in replicate order. also used by SweepCoordinator
+        private Databox[] pending;
+        private DataboxAccumulator accumulator;
+        private Databox averaged = null;
+        private int next_rep = 0, launched;
+
+        CellAccumulator(int first_batch){
+            this.pending = new Databox[first_batch];
+            this.launched = first_batch;
+        }
+
+        synchronized boolean isDone(){return averaged != null;}
+        synchronized Databox averaged(){return averaged;}
+
+        synchronized int[] add(int rep, Databox db, StoppingRule rule){
+            //returns {first, end} of the replicates to launch next if the rule wants more once everything launched is in,
+            //otherwise null (and the cell's done if it's had all its replicates)
+            if(accumulator == null) accumulator = new DataboxAccumulator(db.event_counters.length);
+            pending[rep] = db;
+            while(next_rep < launched && pending[next_rep] != null){
+                accumulator.add(pending[next_rep]);
+                pending[next_rep++] = null;
+            }
+            if(next_rep < launched) return null;
+
+            int more = rule.additionalReplicates(accumulator);
+            if(more == 0){
+                averaged = accumulator.toDatabox();
+                return null;
+            }
+            int first = launched;
+            launched += more;
+            if(pending.length < launched) pending = Arrays.copyOf(pending, launched);
+            return new int[]{first, launched};
+        }
+    }
+
+
+    private interface ReplicateBody {
+        void run(int cell, int rep);
+    }
+
+    private interface BatchBody {
+        void run(int cell, int first_rep, int end_rep);
+    }
+
+    private interface IndexBody {
+        void run(int index);
+    }
+
+    private static class ReplicateRange extends RecursiveAction {
+        //splits an index range in half until it's down to single replicates, so idle workers can steal whole halves of
+        //the remaining sweep. the first range is the flattened [cell*min_reps + rep] of every cell's first replicates,
+        //later ones are the extra replicates of a single cell
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi;
+        private final IndexBody body;
+
+        ReplicateRange(int lo, int hi, IndexBody body){
+            this.lo = lo;
+            this.hi = hi;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute(){
+            if(hi - lo == 1){
+                body.run(lo);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ReplicateRange(lo, mid, body), new ReplicateRange(mid, hi, body));
+        }
+    }
+
+}
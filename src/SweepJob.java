@@ -0,0 +1,90 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+class SweepJob {
+    //what a worker needs to run any replicate of a sweep: which sweep it is, its master seed and its fixed parameters.
+    //a replicate's then just (cell, rep), and is run through the same replay methods as a local rerun, so a worker's
+    //result is bit-for-bit what the replicate would have given on the coordinator's machine.
+    //also holds the message types of the coordinator/worker protocol (see SweepCoordinator)
+
+    static final int PROTOCOL_VERSION = 1;
+
+    //coordinator to worker
+    static final int MSG_JOB = 1, MSG_UNIT = 2, MSG_WAIT = 3, MSG_DONE = 4;
+    //worker to coordinator
+    static final int MSG_REQUEST = 10, MSG_RESULT = 11, MSG_HEARTBEAT = 12;
+
+    static final String DETERIORATION = "deterioration", TAU = "tau";
+
+    final String sweep;
+    final long master_seed;
+    final UpdateScheme scheme;
+    final int K;
+    final double tau, scale, sigma;
+
+
+    private SweepJob(String sweep, long master_seed, UpdateScheme scheme, int K, double tau, double scale, double sigma){
+        this.sweep = sweep;
+        this.master_seed = master_seed;
+        this.scheme = scheme;
+        this.K = K;
+        this.tau = tau;
+        this.scale = scale;
+        this.sigma = sigma;
+    }
+
+    static SweepJob deterioration(double tau_val, UpdateScheme scheme, int K, long master_seed){
+        return new SweepJob(DETERIORATION, master_seed, scheme, K, tau_val, 0., 0.);
+    }
+
+    static SweepJob tauStep(double scale, double sigma, UpdateScheme scheme, long master_seed){
+        return new SweepJob(TAU, master_seed, scheme, 120, 0., scale, sigma);
+    }
+
+
+    Databox runReplicate(int cell, int rep){
+        if(sweep.equals(DETERIORATION)) return BioSystem.replayDeteriorationReplicate(master_seed, cell, rep, tau, scheme, K);
+        return BioSystem.replayTauReplicate(master_seed, cell, rep, scale, sigma, scheme);
+    }
+
+
+    void write(DataOutputStream out) throws IOException{
+        out.writeInt(PROTOCOL_VERSION);
+        out.writeUTF(sweep);
+        out.writeLong(master_seed);
+        out.writeUTF(scheme.name());
+        out.writeInt(K);
+        out.writeDouble(tau);
+        out.writeDouble(scale);
+        out.writeDouble(sigma);
+    }
+
+    static SweepJob read(DataInputStream in) throws IOException{
+        int version = in.readInt();
+        if(version != PROTOCOL_VERSION) throw new IOException("coordinator speaks protocol version "+version+", this worker "+PROTOCOL_VERSION);
+        String sweep = in.readUTF();
+        if(!sweep.equals(DETERIORATION) && !sweep.equals(TAU)) throw new IOException("unknown sweep "+sweep);
+        long master_seed = in.readLong();
+        UpdateScheme scheme = UpdateScheme.valueOf(in.readUTF());
+        int K = in.readInt();
+        double tau = in.readDouble(), scale = in.readDouble(), sigma = in.readDouble();
+        return new SweepJob(sweep, master_seed, scheme, K, tau, scale, sigma);
+    }
+
+
+    static void writeDatabox(DataOutputStream out, Databox db) throws IOException{
+        double[] vals = db.allDataInAnArray();
+        out.writeInt(vals.length);
+        for(double v : vals) out.writeDouble(v);
+    }
+
+    static Databox readDatabox(DataInputStream in) throws IOException{
+        int n = in.readInt();
+        if(n < 0 || n > 1024) throw new IOException("implausible databox length "+n);
+        double[] vals = new double[n];
+        for(int i = 0; i < n; i++) vals[i] = in.readDouble();
+        return Databox.fromArray(vals);
+    }
+
+}
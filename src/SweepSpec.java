@@ -0,0 +1,223 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+class SweepSpec {
+    //a sweep read from a text file instead of fixed in code, run by BioSystem.specSweep. the file is key = value lines
+    //(# starts a comment). every simulation parameter takes one value, a comma separated list, or from:to:n for n+1
+    //evenly spaced values from from to to, and the sweep's cells are every combination of them, the first parameter
+    //in PARAMETERS varying slowest. anything left out takes its value from the deterioration sweep, e.g.
+    //
+    //  name = det_sweep_K240
+    //  K = 240
+    //  det_rate = 0.006:0.06:20
+    //  K_star = 0.45:0.95:20
+    //  reps = 15
+    //
+    //the replicates are given by reps, or by min_reps, max_reps, tolerance and target (thickness or exit_time) for a
+    //confidence interval rule (see StoppingRule). scheme is an UpdateScheme and seed the master seed. a HYBRID sweep
+    //can set hybrid_threshold, the population at which an interior microhabitat goes over to clone classes (half of K
+    //by default).
+    //
+    //each cell's key is the sha-256 of everything that decides what its replicates give: the engine version, the
+    //scheme, the master seed and every parameter value. the replicates' seeds come from the key rather than the
+    //cell's position in the grid, so a cell gives the same results in any sweep it turns up in, and ResultCache can
+    //hand them back to an extended or overlapping sweep. values are rounded to 12 significant figures, so 0.475
+    //reached as 0.45 + 0.025 is the same cell as 0.475 written out
+
+    static final String[] PARAMETERS = {"tau", "K_star", "det_rate", "K", "duration", "thickness_limit", "c_max", "alpha", "scale", "sigma", "observations"};
+    private static final String[] OTHER_KEYS = {"name", "scheme", "seed", "reps", "min_reps", "max_reps", "tolerance", "target", "hybrid_threshold"};
+    private static final String[] DEFAULTS = {"0.01", "0.45:0.95:20", "0.006:0.06:20", "120", "240", String.valueOf(BioSystem.THICKNESS_LIMIT), "0", "0",
+            String.valueOf(BioSystem.SUSCEPTIBLE_SCALE), String.valueOf(BioSystem.SUSCEPTIBLE_SIGMA), "50"};
+    private static final long DEFAULT_SEED = 20181106L; //fixed, so rerunning a spec without a seed still hits the cache
+    private static final MathContext SIGNIFICANT_FIGURES = new MathContext(12);
+
+    final String name;
+    final UpdateScheme scheme;
+    final long master_seed;
+    final StoppingRule rule;
+    final int hybrid_threshold; //0 for the default
+    private final double[][] values; //[parameter][value]
+
+
+    static class Cell {
+        final UpdateScheme scheme;
+        final long master_seed;
+        final double tau, K_star, det_rate, duration, c_max, alpha, scale, sigma;
+        final int K, thickness_limit, observations, hybrid_threshold;
+        final String key; //hex sha-256 of description()
+
+        private Cell(UpdateScheme scheme, long master_seed, int hybrid_threshold, double[] p){
+            this.scheme = scheme;
+            this.master_seed = master_seed;
+            this.tau = p[0];
+            this.K_star = p[1];
+            this.det_rate = p[2];
+            this.K = (int)p[3];
+            this.duration = p[4];
+            this.thickness_limit = (int)p[5];
+            this.c_max = p[6];
+            this.alpha = p[7];
+            this.scale = p[8];
+            this.sigma = p[9];
+            this.observations = (int)p[10];
+            this.hybrid_threshold = hybrid_threshold > 0 ? hybrid_threshold : (int)Math.ceil(BioSystem.HYBRID_THRESHOLD_FRACTION*K);
+            this.key = sha256(description());
+        }
+
+        String description(){
+            //everything the key covers, in a fixed order. Double.toString round-trips, so equal strings mean equal cells
+            return "engine="+BioSystem.ENGINE_VERSION+" scheme="+scheme+" seed="+master_seed+" tau="+tau+" K_star="+K_star+" det_rate="+det_rate
+                    +" K="+K+" duration="+duration+" thickness_limit="+thickness_limit+" c_max="+c_max+" alpha="+alpha
+                    +" scale="+scale+" sigma="+sigma+" observations="+observations
+                    +(scheme == UpdateScheme.HYBRID ? " hybrid_threshold="+hybrid_threshold : "");
+        }
+
+        long seedKey(){
+            //the first 64 bits of the key, which the replicate seeds are derived from
+            return Long.parseUnsignedLong(key.substring(0, 16), 16);
+        }
+    }
+
+
+    private SweepSpec(String name, UpdateScheme scheme, long master_seed, StoppingRule rule, int hybrid_threshold, double[][] values){
+        this.name = name;
+        this.scheme = scheme;
+        this.master_seed = master_seed;
+        this.rule = rule;
+        this.hybrid_threshold = hybrid_threshold;
+        this.values = values;
+    }
+
+
+    static SweepSpec read(File file){
+        String name = file.getName().replaceFirst("\\.[^.]*$", "");
+        try(Reader reader = new FileReader(file)){
+            return parse(reader, name);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SweepSpec parse(Reader reader, String default_name) throws IOException{
+        Properties props = new Properties();
+        props.load(reader);
+        for(String key : props.stringPropertyNames()){
+            if(!Arrays.asList(PARAMETERS).contains(key) && !Arrays.asList(OTHER_KEYS).contains(key)){
+                throw new IllegalArgumentException("unknown sweep spec key "+key+", expected one of "+Arrays.toString(PARAMETERS)+" or "+Arrays.toString(OTHER_KEYS));
+            }
+        }
+
+        double[][] values = new double[PARAMETERS.length][];
+        for(int p = 0; p < PARAMETERS.length; p++){
+            values[p] = parseValues(PARAMETERS[p], props.getProperty(PARAMETERS[p], DEFAULTS[p]));
+        }
+        //K, thickness_limit and observations are counts
+        for(int p : new int[]{3, 5, 10}){
+            for(double v : values[p]){
+                if(v != Math.rint(v) || v < 1) throw new IllegalArgumentException(PARAMETERS[p]+" has to be a positive whole number, not "+v);
+            }
+        }
+
+        String name = props.getProperty("name", default_name).trim();
+        UpdateScheme scheme = UpdateScheme.valueOf(props.getProperty("scheme", "TAU_LEAP").trim());
+        long master_seed = Long.parseLong(props.getProperty("seed", String.valueOf(DEFAULT_SEED)).trim());
+        int hybrid_threshold = Integer.parseInt(props.getProperty("hybrid_threshold", "0").trim());
+        if(hybrid_threshold < 0) throw new IllegalArgumentException("hybrid_threshold can't be negative");
+        return new SweepSpec(name, scheme, master_seed, parseRule(props), hybrid_threshold, values);
+    }
+
+
+    private static StoppingRule parseRule(Properties props){
+        if(props.getProperty("tolerance") == null){
+            if(props.getProperty("min_reps") != null || props.getProperty("max_reps") != null || props.getProperty("target") != null){
+                throw new IllegalArgumentException("min_reps, max_reps and target go with tolerance, use reps for a fixed number");
+            }
+            return StoppingRule.fixed(Integer.parseInt(props.getProperty("reps", "15").trim()));
+        }
+        if(props.getProperty("reps") != null) throw new IllegalArgumentException("give either reps or tolerance, not both");
+        String target = props.getProperty("target", "thickness").trim();
+        int field;
+        if(target.equals("thickness")) field = DataboxAccumulator.THICKNESS;
+        else if(target.equals("exit_time")) field = DataboxAccumulator.EXIT_TIME;
+        else throw new IllegalArgumentException("target has to be thickness or exit_time, not "+target);
+        return StoppingRule.confidenceInterval(field, Double.parseDouble(props.getProperty("tolerance").trim()),
+                Integer.parseInt(props.getProperty("min_reps", "5").trim()), Integer.parseInt(props.getProperty("max_reps", "50").trim()));
+    }
+
+
+    private static double[] parseValues(String parameter, String text){
+        ArrayList<Double> vals = new ArrayList<>();
+        for(String item : text.split(",")){
+            String[] range = item.trim().split(":");
+            try{
+                if(range.length == 1){
+                    vals.add(rounded(Double.parseDouble(range[0])));
+                }else if(range.length == 3){
+                    double from = Double.parseDouble(range[0]), to = Double.parseDouble(range[1]);
+                    int n = Integer.parseInt(range[2].trim());
+                    if(n < 1) throw new IllegalArgumentException(parameter+": a range needs at least 1 interval");
+                    //from the index, as in deteriorationSweepCells, so the ends don't drift
+                    for(int i = 0; i <= n; i++) vals.add(rounded(from + i*(to - from)/n));
+                }else{
+                    throw new IllegalArgumentException(parameter+": "+item.trim()+" isn't a value or a from:to:n range");
+                }
+            }catch(NumberFormatException e){
+                throw new IllegalArgumentException(parameter+": can't read "+item.trim(), e);
+            }
+        }
+        double[] out = new double[vals.size()];
+        for(int i = 0; i < out.length; i++) out[i] = vals.get(i);
+        return out;
+    }
+
+    private static double rounded(double v){
+        return new BigDecimal(v).round(SIGNIFICANT_FIGURES).doubleValue();
+    }
+
+
+    ArrayList<Cell> cells(){
+        //every combination of the parameter values, the first parameter varying slowest
+        ArrayList<Cell> cells = new ArrayList<>();
+        int[] index = new int[PARAMETERS.length];
+        double[] p = new double[PARAMETERS.length];
+        while(true){
+            for(int k = 0; k < p.length; k++) p[k] = values[k][index[k]];
+            cells.add(new Cell(scheme, master_seed, hybrid_threshold, p));
+
+            int k = PARAMETERS.length - 1;
+            while(k >= 0 && ++index[k] == values[k].length) index[k--] = 0;
+            if(k < 0) return cells;
+        }
+    }
+
+
+    String label(){
+        //the output's filename, less any shard
+        return String.format(Locale.ROOT, "spec-%s-%s%s-seed=%d", name, scheme, rule.label(), master_seed);
+    }
+
+
+    private static String sha256(String s){
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(2*digest.length);
+            for(byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("no SHA-256 in this jvm", e);
+        }
+    }
+
+}
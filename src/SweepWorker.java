@@ -0,0 +1,113 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+class SweepWorker {
+    //runs replicates for a SweepCoordinator. each of n_threads threads holds its own connection and runs one
+    //replicate at a time, heartbeating its lease every HEARTBEAT_MILLIS while it does.
+    //run with: java --add-modules jdk.incubator.vector -cp ".:java_jars/*" PyrithioneMain worker <host> <port> [n_threads]
+
+    private static final long HEARTBEAT_MILLIS = 5_000L;
+
+    private final String host;
+    private final int port;
+
+
+    SweepWorker(String host, int port){
+        this.host = host;
+        this.port = port;
+    }
+
+
+    void run(int n_threads){
+        //returns once the coordinator says the sweep's done (or has gone away)
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "worker-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread[] threads = new Thread[n_threads];
+        for(int t = 0; t < n_threads; t++){
+            threads[t] = new Thread(() -> connection(heartbeats), "worker-"+t);
+            threads[t].start();
+        }
+        for(Thread t : threads){
+            try{
+                t.join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        heartbeats.shutdownNow();
+    }
+
+
+    private void connection(ScheduledExecutorService heartbeats){
+        int n_run = 0;
+        try(Socket socket = new Socket(host, port);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))){
+            socket.setTcpNoDelay(true);
+
+            if(in.readInt() != SweepJob.MSG_JOB) throw new IOException("expected a job from the coordinator");
+            SweepJob job = SweepJob.read(in);
+
+            while(true){
+                synchronized(out){
+                    out.writeInt(SweepJob.MSG_REQUEST);
+                    out.flush();
+                }
+                int type = in.readInt();
+                if(type == SweepJob.MSG_DONE) break;
+                if(type == SweepJob.MSG_WAIT){
+                    Thread.sleep(in.readInt());
+                    continue;
+                }
+                if(type != SweepJob.MSG_UNIT) throw new IOException("unknown message type "+type);
+
+                int unit = in.readInt(), cell = in.readInt(), rep = in.readInt();
+                ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+                    try{
+                        synchronized(out){
+                            out.writeInt(SweepJob.MSG_HEARTBEAT);
+                            out.writeInt(unit);
+                            out.writeInt(rep);
+                            out.flush();
+                        }
+                    }catch(IOException e){
+                        //the main loop finds out when it next writes
+                    }
+                }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+                Databox db;
+                try{
+                    db = job.runReplicate(cell, rep);
+                }finally{
+                    heartbeat.cancel(false);
+                }
+                synchronized(out){
+                    out.writeInt(SweepJob.MSG_RESULT);
+                    out.writeInt(unit);
+                    out.writeInt(rep);
+                    SweepJob.writeDatabox(out, db);
+                    out.flush();
+                }
+                n_run++;
+            }
+        }catch(IOException e){
+            System.out.println(Thread.currentThread().getName()+" lost the coordinator: "+e);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(Thread.currentThread().getName()+" ran "+n_run+" replicates");
+    }
+
+}
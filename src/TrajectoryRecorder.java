@@ -0,0 +1,196 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+class TrajectoryRecorder implements AutoCloseable {
+    //records the trajectory of every replicate in a sweep (the observations that used to be println'd) to
+    //trajectories/<filename>.txt. each replicate writes its samples into its own ring buffer of primitive arrays,
+    //which one background thread drains to the file, so the simulation threads never wait on stdout or the disk.
+    //a replicate only blocks if its buffer fills up before the writer gets to it, which at the sweeps' observation
+    //rates doesn't happen.
+    //
+    //each line is one sample: cell rep t system_size bf_edge total_N deaths detachments immigrations replications
+    //tau_halves, then the N of each microhabitat (so the lines get longer as the biofilm grows).
+    //a resumed sweep appends to the file. its replicates pick up from their last snapshot (or the start), so the
+    //samples between there and the crash are written again, but as the replicates replay exactly they're the same
+    //lines, and a (cell, rep, t) seen twice can be dropped
+
+    private static final int DEFAULT_CAPACITY = 256; //samples per replicate buffer
+    private static final long DRAIN_INTERVAL_NANOS = 100_000_000L;
+    private static final int N_COUNTERS = 5;
+
+    private final int capacity;
+    private final BufferedWriter bw;
+    private final CopyOnWriteArrayList<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private final StringBuilder line = new StringBuilder();
+    private final Thread writer_thread;
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+
+
+    TrajectoryRecorder(String directoryName, String filename, boolean append){
+        this(directoryName, filename, DEFAULT_CAPACITY, append);
+    }
+
+    TrajectoryRecorder(String directoryName, String filename, int capacity, boolean append){
+        //append is for a resumed sweep, a new sweep starts the file again
+        this.capacity = capacity;
+        File directory = new File(directoryName);
+        if(!directory.exists()) directory.mkdirs();
+        File file = new File(directory, filename+".txt");
+        boolean new_file = !append || file.length() == 0;
+        try{
+            bw = new BufferedWriter(new FileWriter(file, !new_file));
+            if(new_file){
+                bw.write("#cell rep t system_size bf_edge total_N deaths detachments immigrations replications tau_halves N_0..N_(system_size-1)");
+                bw.newLine();
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        writer_thread = new Thread(this::drainLoop, "trajectory-writer");
+        writer_thread.setDaemon(true);
+        writer_thread.start();
+    }
+
+
+    Buffer newReplicate(int cell, int rep, int max_system_size){
+        Buffer buffer = new Buffer(cell, rep, capacity, max_system_size);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+
+    @Override
+    public void close(){
+        closed = true;
+        LockSupport.unpark(writer_thread);
+        try{
+            writer_thread.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        try{
+            bw.close();
+        }catch(IOException e){
+            if(failure == null) failure = e;
+        }
+        if(failure != null) throw new UncheckedIOException(failure);
+    }
+
+
+    private void drainLoop(){
+        while(true){
+            boolean finishing = closed;
+            try{
+                for(Buffer buffer : buffers){
+                    if(buffer.discarded){
+                        buffers.remove(buffer);
+                        continue;
+                    }
+                    drain(buffer);
+                    if(buffer.finished && buffer.isEmpty()) buffers.remove(buffer);
+                }
+                bw.flush();
+            }catch(IOException e){
+                //stop writing, close() reports it. buffers are still emptied so no replicate blocks on a full one
+                if(failure == null) failure = e;
+                for(Buffer buffer : buffers) buffer.tail = buffer.head;
+            }
+            if(finishing) return;
+            LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+        }
+    }
+
+    private void drain(Buffer buffer) throws IOException{
+        long head = buffer.head;
+        for(long s = buffer.tail; s < head; s++){
+            int slot = (int)(s%capacity);
+            if(failure == null){
+                line.setLength(0);
+                line.append(buffer.cell).append(' ').append(buffer.rep).append(' ').append(buffer.times[slot]);
+                int system_size = buffer.system_sizes[slot];
+                line.append(' ').append(system_size).append(' ').append(buffer.edges[slot]).append(' ').append(buffer.total_Ns[slot]);
+                for(int c = 0; c < N_COUNTERS; c++) line.append(' ').append(buffer.counters[slot*N_COUNTERS + c]);
+                for(int m = 0; m < system_size; m++) line.append(' ').append(buffer.Ns[slot*buffer.max_system_size + m]);
+                bw.write(line.toString());
+                bw.newLine();
+            }
+            buffer.tail = s + 1;
+        }
+    }
+
+
+    class Buffer {
+        //single producer (the replicate's thread), single consumer (the writer thread) ring of samples.
+        //the producer only writes head and the consumer only writes tail, so no locking is needed
+        private final int cell, rep, max_system_size;
+        private final double[] times;
+        private final int[] system_sizes, edges, total_Ns, counters, Ns;
+        private volatile long head = 0, tail = 0;
+        private volatile boolean finished = false, discarded = false;
+
+        private Buffer(int cell, int rep, int capacity, int max_system_size){
+            this.cell = cell;
+            this.rep = rep;
+            this.max_system_size = max_system_size;
+            this.times = new double[capacity];
+            this.system_sizes = new int[capacity];
+            this.edges = new int[capacity];
+            this.total_Ns = new int[capacity];
+            this.counters = new int[capacity*N_COUNTERS];
+            this.Ns = new int[capacity*max_system_size];
+        }
+
+        int beginSample(double t, int system_size, int bf_edge){
+            //returns the slot to fill in. the sample's published by commitSample
+            while(head - tail >= capacity){
+                LockSupport.unpark(writer_thread);
+                LockSupport.parkNanos(1_000_000L);
+            }
+            int slot = (int)(head%capacity);
+            times[slot] = t;
+            system_sizes[slot] = Math.min(system_size, max_system_size);
+            edges[slot] = bf_edge;
+            return slot;
+        }
+
+        void setCounters(int slot, int deaths, int detachments, int immigrations, int replications, int tau_halves){
+            int o = slot*N_COUNTERS;
+            counters[o] = deaths;
+            counters[o+1] = detachments;
+            counters[o+2] = immigrations;
+            counters[o+3] = replications;
+            counters[o+4] = tau_halves;
+        }
+
+        void setN(int slot, int mh_index, int N){
+            if(mh_index < max_system_size) Ns[slot*max_system_size + mh_index] = N;
+        }
+
+        void commitSample(int slot, int total_N){
+            total_Ns[slot] = total_N;
+            head = head + 1;
+        }
+
+        void finish(){
+            //the replicate's done, the writer drops the buffer once it's drained it
+            finished = true;
+        }
+
+        void discard(){
+            //the replicate failed, the writer drops the buffer without writing what's left in it
+            discarded = true;
+        }
+
+        private boolean isEmpty(){
+            return tail == head;
+        }
+    }
+
+}
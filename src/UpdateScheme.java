@@ -0,0 +1,11 @@
+enum UpdateScheme {
+    //the different ways BioSystem.performAction can advance the system
+
+    TAU_LEAP,       //poisson tau-leaping per bacterium, tau is halved and the step redrawn on any double event
+    BINOMIAL_LEAP,  //as TAU_LEAP, but deaths, migrations and detachments are bernoulli trials so there are no double events
+    CLONE_CLASS,    //bacteria grouped into (MIC, count) classes, each event type drawn once per class
+    LOCAL_TAU,      //each microhabitat leaps on its own clock with cao-gillespie tau selection, tau is the sync interval
+    EXACT_SSA,      //exact gillespie simulation, event by event. tau is just how far each performAction call runs
+    HYBRID          //binomial leaping per bacterium at the surface, the immigration zone and in sparse microhabitats,
+                    //clone classes with chemical langevin draws in the crowded interior
+}
@@ -0,0 +1,52 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorRateKernel {
+    //the simd versions of RateKernel's passes, only ever called through RateKernel, which falls back to its scalar
+    //loops if this class can't be linked. each lane mirrors the scalar expression operation for operation, and the
+    //tail shorter than a vector is finished off by the scalar loop
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+
+    static int lanes(){
+        return SPECIES.length();
+    }
+
+
+    static void fill(double c, double max_g_rate, double uniform_d_rate, double[] mics, int from, int to, double[] g_max, double[] d_rates){
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector uniform_d = DoubleVector.broadcast(SPECIES, uniform_d_rate);
+        int i = from;
+        for(int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()){
+            DoubleVector cB = DoubleVector.broadcast(SPECIES, c).div(DoubleVector.fromArray(SPECIES, mics, i));
+            DoubleVector cB_sq = cB.mul(cB);
+            //phi_c = 1 - (6*cB*cB)/(5 + cB*cB), with 6*cB*cB evaluated left to right as in the scalar version
+            DoubleVector phi_c = DoubleVector.broadcast(SPECIES, 1.).sub(cB.mul(6.).mul(cB).div(cB_sq.add(5.)));
+            DoubleVector phi_c_scaled = phi_c.mul(max_g_rate);
+
+            //blends rather than max/min, so that -0 and nan come out as they do in the scalar comparisons
+            VectorMask<Double> growing = phi_c_scaled.compare(VectorOperators.GT, 0.);
+            VectorMask<Double> dying = phi_c_scaled.compare(VectorOperators.LT, 0.);
+            zero.blend(phi_c_scaled, growing).intoArray(g_max, i);
+            uniform_d.blend(phi_c_scaled.add(uniform_d), dying).intoArray(d_rates, i);
+        }
+        RateKernel.fillScalar(c, max_g_rate, uniform_d_rate, mics, i, to, g_max, d_rates);
+    }
+
+
+    static void scale(double[] g_max, double[] d_rates, int n, double density_factor, double[] g_out, double[] d_out){
+        int i = 0;
+        for(int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()){
+            DoubleVector.fromArray(SPECIES, g_max, i).mul(density_factor).intoArray(g_out, i);
+            DoubleVector.fromArray(SPECIES, d_rates, i).abs().intoArray(d_out, i);
+        }
+        for(; i < n; i++){
+            g_out[i] = g_max[i]*density_factor;
+            d_out[i] = Math.abs(d_rates[i]);
+        }
+    }
+
+}
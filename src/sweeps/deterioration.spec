@@ -0,0 +1,12 @@
+# the deterioration rate/threshold density sweep of varyingDeteriorationAndThreshold, as a spec.
+# run with: java --add-modules jdk.incubator.vector -cp ".:java_jars/*" PyrithioneMain spec sweeps/deterioration.spec
+name = deterioration
+scheme = TAU_LEAP
+tau = 0.01
+K_star = 0.45:0.95:20
+det_rate = 0.006:0.06:20
+K = 120
+duration = 240
+thickness_limit = 6
+observations = 50
+reps = 15
@@ -0,0 +1,13 @@
+# the tau step sweep of varyingTauStep (99% susceptible immigrants, c_max = 10), as a spec
+name = tau_step
+scheme = TAU_LEAP
+tau = 0.01:1.2:64
+K_star = 0.6
+det_rate = 0.002
+duration = 1000
+c_max = 10
+alpha = 0.01
+scale = 2.71760274
+sigma = 0.56002833
+observations = 10
+reps = 20
@@ -0,0 +1,13 @@
+# the deterioration sweep run out to a 50 microhabitat thickness limit, with the crowded interior of the biofilm
+# held as clone classes (the HYBRID scheme)
+name = thick_hybrid
+scheme = HYBRID
+hybrid_threshold = 60
+tau = 0.01
+K_star = 0.45:0.95:20
+det_rate = 0.006:0.06:20
+K = 120
+duration = 240
+thickness_limit = 50
+observations = 50
+reps = 15